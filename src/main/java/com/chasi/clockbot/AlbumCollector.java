@@ -0,0 +1,77 @@
+package com.chasi.clockbot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Gathers the messages of a Telegram album. Telegram delivers every photo of a media group as its own
+ * message, usually within a fraction of a second; a group is handed to the consumer once no new part
+ * arrived for {@code quietMs} or it reached the album limit. The consumer runs on the shared delayed
+ * executor and must not block.
+ */
+public class AlbumCollector<T> {
+    /** Telegram albums hold at most ten items. */
+    private static final int MAX_ALBUM_SIZE = 10;
+
+    private final long quietMs;
+    private final Consumer<List<T>> consumer;
+    private final Map<String, Group<T>> groups = new HashMap<>();
+
+    public AlbumCollector(long quietMs, Consumer<List<T>> consumer) {
+        this.quietMs = quietMs;
+        this.consumer = consumer;
+    }
+
+    public void add(String groupKey, T item) {
+        List<T> full = null;
+        synchronized (this) {
+            Group<T> group = groups.computeIfAbsent(groupKey, key -> new Group<>());
+            group.items.add(item);
+            group.generation++;
+            if (group.items.size() >= MAX_ALBUM_SIZE) {
+                groups.remove(groupKey);
+                full = group.items;
+            } else {
+                long generation = group.generation;
+                CompletableFuture.delayedExecutor(quietMs, TimeUnit.MILLISECONDS)
+                    .execute(() -> expire(groupKey, group, generation));
+            }
+        }
+        if (full != null) {
+            consumer.accept(full);
+        }
+    }
+
+    /** Hands over every incomplete group right away, e.g. on shutdown. */
+    public void flushAll() {
+        List<List<T>> pending;
+        synchronized (this) {
+            pending = new ArrayList<>();
+            for (Group<T> group : groups.values()) {
+                pending.add(group.items);
+            }
+            groups.clear();
+        }
+        pending.forEach(consumer);
+    }
+
+    private void expire(String groupKey, Group<T> group, long generation) {
+        synchronized (this) {
+            if (group.generation != generation || groups.get(groupKey) != group) {
+                return;
+            }
+            groups.remove(groupKey);
+        }
+        consumer.accept(group.items);
+    }
+
+    private static final class Group<T> {
+        private final List<T> items = new ArrayList<>();
+        private long generation;
+    }
+}
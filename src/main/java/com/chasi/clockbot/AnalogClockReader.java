@@ -0,0 +1,323 @@
+package com.chasi.clockbot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Estimates the time on an analog dial without calling the model. Inside the dial found by
+ * {@link DialDetector}, pixels that differ from the face are taken as ink, and for every direction the
+ * reader measures how far ink runs unbroken from the center. Hands are the directions with a long
+ * reach: numerals and ticks are not connected to the center. The longest hand is the minute hand.
+ *
+ * <p>The hour hand must agree with the minute hand, since it moves half a degree per minute. How well
+ * it agrees is the main part of the confidence, which also catches swapped hands and rotated photos.
+ * Twelve is assumed to be at the top; the markers around the rim correct a small tilt, and without
+ * markers the circle is not trusted as a dial.
+ */
+public final class AnalogClockReader {
+    /**
+     * @param time  HH:MM on a twelve-hour dial, with twelve o'clock as 12
+     * @param hands the hand directions in degrees clockwise from twelve, minute hand first
+     */
+    public record Reading(String time, double confidence, double[] hands, DialDetector.Dial dial) {
+        public String describe() {
+            return String.format(Locale.ROOT, "%s minute=%.1f hour=%.1f dial=%.2f confidence=%.2f", time,
+                hands[0], hands[1], dial.coverage(), confidence);
+        }
+    }
+
+    private static final int DIRECTIONS = 720;
+    /** Hub of the hands; every direction has ink this close to the center. */
+    private static final double START_RADIUS = 0.06;
+    /** Numerals and the minute track start beyond this, and reaching them does not make a hand longer. */
+    private static final double MAX_REACH = 0.85;
+    private static final double MIN_HAND_REACH = 0.25;
+    /** Largest break along a hand, e.g. where it crosses the second hand, as a fraction of the radius. */
+    private static final double MAX_GAP = 0.04;
+    /** Hands closer than this are the same hand. */
+    private static final double HAND_SEPARATION_DEGREES = 10;
+    /** A second hand is at most this fraction as wide as the widest hand. */
+    private static final double SECOND_HAND_WIDTH = 0.3;
+    private static final int MIN_INK_CONTRAST = 30;
+    /** Band of hour markers and numerals, as fractions of the radius. */
+    private static final double RIM_START = 0.7;
+    private static final double RIM_END = 0.97;
+    /** Share of rim variance at the twelve-fold frequencies below which the circle is not taken as a dial. */
+    private static final double MIN_MARKER_PERIODICITY = 0.15;
+    /** Hour hand error, in degrees, at which confidence reaches zero; one degree is two minutes. */
+    private static final double MAX_HOUR_MISMATCH = 12;
+
+    private AnalogClockReader() {
+    }
+
+    /** @return the estimate, or null if no dial or no pair of hands is found */
+    public static Reading read(GrayImage image) {
+        DialDetector.Dial dial = DialDetector.find(image);
+        return dial == null ? null : read(image, dial);
+    }
+
+    /** @return the estimate for a dial already found in {@code image}, or null if no pair of hands is found */
+    public static Reading read(GrayImage image, DialDetector.Dial dial) {
+        int face = faceLevel(image, dial);
+        if (face < 0) {
+            return null;
+        }
+        int threshold = inkThreshold(image, dial, face);
+        double[] markers = markers(image, dial, face, threshold);
+        Reading best = null;
+        for (boolean darkHands : new boolean[] {true, false}) {
+            double[] reach = reach(image, dial, face, threshold, darkHands);
+            Reading reading = readHands(reach, dial, markers);
+            if (reading != null && (best == null || reading.confidence() > best.confidence())) {
+                best = reading;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Median luma of the face and, in {@link #inkThreshold}, its spread. Sampled on rings between the
+     * hub and the numerals, where hands cover only a small share of the pixels.
+     *
+     * @return the median, or -1 if the dial lies mostly outside the image
+     */
+    private static int faceLevel(GrayImage image, DialDetector.Dial dial) {
+        int[] histogram = new int[256];
+        int inside = 0;
+        int total = 0;
+        for (double r = 0.2; r <= 0.7; r += 0.1) {
+            for (int i = 0; i < DIRECTIONS; i += 2) {
+                total++;
+                int value = sample(image, dial, i, r);
+                if (value >= 0) {
+                    histogram[value]++;
+                    inside++;
+                }
+            }
+        }
+        if (inside < total * 0.9) {
+            return -1;
+        }
+        return percentile(histogram, inside, 0.5);
+    }
+
+    /** @return for every direction, how far ink runs from the hub, as a fraction of the radius */
+    private static double[] reach(GrayImage image, DialDetector.Dial dial, int face, int threshold,
+                                  boolean darkHands) {
+        double step = 1.0 / dial.radius();
+        double[] reach = new double[DIRECTIONS];
+        for (int i = 0; i < DIRECTIONS; i++) {
+            double lastInk = START_RADIUS;
+            for (double r = START_RADIUS; r <= MAX_REACH && r - lastInk <= MAX_GAP; r += step) {
+                int value = sample(image, dial, i, r);
+                if (value < 0) {
+                    break;
+                }
+                int contrast = darkHands ? face - value : value - face;
+                if (contrast >= threshold) {
+                    lastInk = r;
+                }
+            }
+            reach[i] = lastInk;
+        }
+        return reach;
+    }
+
+    /** Ink differs from the face by three times the face's median deviation, and at least {@link #MIN_INK_CONTRAST}. */
+    private static int inkThreshold(GrayImage image, DialDetector.Dial dial, int face) {
+        int[] histogram = new int[256];
+        int count = 0;
+        for (double r = 0.2; r <= 0.7; r += 0.1) {
+            for (int i = 0; i < DIRECTIONS; i += 2) {
+                int value = sample(image, dial, i, r);
+                if (value >= 0) {
+                    histogram[Math.abs(value - face)]++;
+                    count++;
+                }
+            }
+        }
+        return Math.max(MIN_INK_CONTRAST, 3 * percentile(histogram, count, 0.5));
+    }
+
+    /**
+     * Hour markers and numerals repeat every 30 degrees around the rim, which random circles in a photo
+     * do not. Returns the share of the rim ink profile's variance at multiples of that frequency, and
+     * the photo's rotation in degrees that the phase of the twelve-fold component implies.
+     */
+    private static double[] markers(GrayImage image, DialDetector.Dial dial, int face, int threshold) {
+        double[] profile = new double[DIRECTIONS];
+        double mean = 0;
+        for (int i = 0; i < DIRECTIONS; i++) {
+            for (double r = RIM_START; r <= RIM_END; r += 1.0 / dial.radius()) {
+                int value = sample(image, dial, i, r);
+                if (value >= 0 && Math.abs(value - face) >= threshold) {
+                    profile[i]++;
+                }
+            }
+            mean += profile[i] / DIRECTIONS;
+        }
+        double variance = 0;
+        for (double value : profile) {
+            variance += (value - mean) * (value - mean);
+        }
+        if (variance == 0) {
+            return new double[] {0, 0};
+        }
+        double periodic = 0;
+        double fundamentalRe = 0;
+        double fundamentalIm = 0;
+        for (int frequency = 12; frequency < DIRECTIONS / 2; frequency += 12) {
+            double re = 0;
+            double im = 0;
+            for (int i = 0; i < DIRECTIONS; i++) {
+                double angle = 2 * Math.PI * frequency * i / DIRECTIONS;
+                re += (profile[i] - mean) * Math.cos(angle);
+                im -= (profile[i] - mean) * Math.sin(angle);
+            }
+            // Each frequency below the Nyquist one carries its mirror image's share of the variance too.
+            periodic += 2 * (re * re + im * im) / DIRECTIONS;
+            if (frequency == 12) {
+                fundamentalRe = re;
+                fundamentalIm = im;
+            }
+        }
+        double rotation = -Math.toDegrees(Math.atan2(fundamentalIm, fundamentalRe)) / 12;
+        return new double[] {periodic / variance, rotation};
+    }
+
+    private static Reading readHands(double[] reach, DialDetector.Dial dial, double[] markers) {
+        List<int[]> hands = hands(reach);
+        if (hands.isEmpty()) {
+            return null;
+        }
+        // Hands that overlap show up as one; the pair is then the same direction twice.
+        int[] minute = hands.get(0);
+        int[] hour = hands.size() > 1 ? hands.get(1) : minute;
+        double rotation = markers[0] >= MIN_MARKER_PERIODICITY ? markers[1] : 0;
+        double minuteAngle = normalize(minute[0] * 360.0 / DIRECTIONS - rotation);
+        double hourAngle = normalize(hour[0] * 360.0 / DIRECTIONS - rotation);
+
+        int minutes = (int) Math.round(minuteAngle / 6) % 60;
+        double exactMinutes = minuteAngle / 6;
+        int hours = Math.floorMod((int) Math.round((hourAngle - exactMinutes * 0.5) / 30), 12);
+        double mismatch = angleBetween(hourAngle, hours * 30 + exactMinutes * 0.5);
+        if (minutes == 0 && exactMinutes > 59) {
+            // 59.6 minutes rounds up, and the hour hand is then already on the next hour.
+            hours = (hours + 1) % 12;
+        }
+        double agreement = 1 - mismatch / MAX_HOUR_MISMATCH;
+
+        // The same pair read the other way round must not agree as well, or the lengths decide alone.
+        double swappedMinutes = hourAngle / 6;
+        double swappedMismatch = angleBetween(minuteAngle,
+            Math.round((minuteAngle - swappedMinutes * 0.5) / 30) * 30 + swappedMinutes * 0.5);
+        double distinct = hour == minute ? 1 : Math.min(1, swappedMismatch / MAX_HOUR_MISMATCH);
+        double lengths = hour == minute ? 1 : (minute[1] - hour[1]) / (0.15 * minute[1]);
+        // A third long hand that is not the second hand leaves the pair in doubt.
+        double unique = hands.size() > 2 ? 1 - (double) hands.get(2)[2] / hour[2] : 1;
+
+        // A tilt of 20 degrees looks like one of -10, so only small tilts are trusted.
+        double dialEvidence = Math.min(Math.min(1, dial.coverage() / 0.8),
+            Math.min(clamp((markers[0] - MIN_MARKER_PERIODICITY) / 0.2), clamp((12 - Math.abs(rotation)) / 4)));
+        double confidence = clamp(Math.min(Math.min(agreement, Math.max(distinct, lengths)), unique)) * dialEvidence;
+        String time = TimeNormalizer.normalize(String.format(Locale.ROOT, "%02d:%02d",
+            hours == 0 ? 12 : hours, minutes));
+        if ("UNKNOWN".equals(time)) {
+            return null;
+        }
+        return new Reading(time, confidence, new double[] {minuteAngle, hourAngle}, dial);
+    }
+
+    /**
+     * Directions whose reach is a local maximum of at least {@link #MIN_HAND_REACH}, longest first, as
+     * {direction, reach and width in thousandths of the radius}. The width is measured halfway along
+     * the hand, across the neighbouring directions that reach at least that far. The thinnest of three
+     * long hands, and any hand much thinner than the widest, is a second hand and is dropped.
+     */
+    private static List<int[]> hands(double[] reach) {
+        int separation = (int) (HAND_SEPARATION_DEGREES * DIRECTIONS / 360);
+        Integer[] order = new Integer[DIRECTIONS];
+        for (int i = 0; i < DIRECTIONS; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(reach[b], reach[a]));
+        List<int[]> hands = new ArrayList<>();
+        for (int direction : order) {
+            if (reach[direction] < MIN_HAND_REACH) {
+                break;
+            }
+            boolean near = false;
+            for (int[] hand : hands) {
+                int distance = Math.abs(hand[0] - direction);
+                near |= Math.min(distance, DIRECTIONS - distance) <= separation;
+            }
+            if (!near) {
+                hands.add(new int[] {direction, (int) (reach[direction] * 1000), width(reach, direction)});
+            }
+        }
+        int widest = 0;
+        int thinnest = 0;
+        for (int i = 0; i < hands.size(); i++) {
+            widest = Math.max(widest, hands.get(i)[2]);
+            thinnest = hands.get(i)[2] < hands.get(thinnest)[2] ? i : thinnest;
+        }
+        if (hands.size() >= 3) {
+            hands.remove(thinnest);
+        }
+        int minWidth = (int) (widest * SECOND_HAND_WIDTH);
+        hands.removeIf(hand -> hand[2] < minWidth);
+        return hands;
+    }
+
+    private static int width(double[] reach, int direction) {
+        double half = reach[direction] / 2;
+        int directions = 1;
+        for (int side : new int[] {-1, 1}) {
+            for (int offset = 1; offset < DIRECTIONS / 8; offset++) {
+                if (reach[Math.floorMod(direction + side * offset, DIRECTIONS)] < half) {
+                    break;
+                }
+                directions++;
+            }
+        }
+        return (int) (directions * 2 * Math.PI / DIRECTIONS * half * 1000);
+    }
+
+    /** @return luma at {@code r} radii from the center in direction {@code i}, or -1 outside the image */
+    private static int sample(GrayImage image, DialDetector.Dial dial, int direction, double r) {
+        double angle = direction * 2 * Math.PI / DIRECTIONS;
+        int x = (int) Math.round(dial.centerX() + Math.sin(angle) * r * dial.radius());
+        int y = (int) Math.round(dial.centerY() - Math.cos(angle) * r * dial.radius());
+        if (x < 0 || y < 0 || x >= image.width() || y >= image.height()) {
+            return -1;
+        }
+        return image.get(x, y);
+    }
+
+    private static int percentile(int[] histogram, int count, double fraction) {
+        int seen = 0;
+        for (int value = 0; value < histogram.length; value++) {
+            seen += histogram[value];
+            if (seen > count * fraction) {
+                return value;
+            }
+        }
+        return histogram.length - 1;
+    }
+
+    private static double normalize(double degrees) {
+        double normalized = degrees % 360;
+        return normalized < 0 ? normalized + 360 : normalized;
+    }
+
+    private static double angleBetween(double a, double b) {
+        double difference = Math.abs(a - b) % 360;
+        return Math.min(difference, 360 - difference);
+    }
+
+    private static double clamp(double value) {
+        return Math.max(0, Math.min(1, value));
+    }
+}
@@ -0,0 +1,288 @@
+package com.chasi.clockbot;
+
+import java.awt.Graphics2D;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Area-averaging resampler that reads 8-bit raster buffers directly. Every target pixel is the
+ * coverage-weighted mean of the source pixels under it, so thin strokes such as clock hands fade
+ * instead of disappearing between bilinear samples on large downscale factors.
+ *
+ * <p>Target rows are split across the common fork-join pool; each worker keeps its scratch rows in a
+ * thread-local buffer that is reused between images.
+ */
+public class AreaResampler {
+    private static final int ROWS_PER_TASK = 32;
+    private static final long MIN_PARALLEL_SOURCE_PIXELS = 1_000_000;
+    private static final ThreadLocal<float[]> SCRATCH = ThreadLocal.withInitial(() -> new float[0]);
+
+    /** Resizes {@code source} to an opaque {@link BufferedImage#TYPE_INT_RGB} image. */
+    public static BufferedImage resize(BufferedImage source, int width, int height) {
+        Pixels pixels = Pixels.of(source);
+        if (pixels == null) {
+            source = drawRgb(source);
+            pixels = Pixels.of(source);
+        }
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] out = ((DataBufferInt) target.getRaster().getDataBuffer()).getData();
+        Weights columns = Weights.of(source.getWidth(), width);
+        Weights rows = Weights.of(source.getHeight(), height);
+        Rows task = new Rows(pixels, columns, rows, out, width, 0, height);
+
+        long sourcePixels = (long) source.getWidth() * source.getHeight();
+        if (sourcePixels >= MIN_PARALLEL_SOURCE_PIXELS && height > ROWS_PER_TASK) {
+            ForkJoinPool.commonPool().invoke(task);
+        } else {
+            task.compute();
+        }
+        return target;
+    }
+
+    /** Converts formats the resampler cannot read directly, e.g. palettes, alpha or 16-bit channels. */
+    private static BufferedImage drawRgb(BufferedImage source) {
+        BufferedImage target = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = target.createGraphics();
+        g2d.drawImage(source, 0, 0, null);
+        g2d.dispose();
+        return target;
+    }
+
+    private static final class Rows extends RecursiveAction {
+        private final Pixels pixels;
+        private final Weights columns;
+        private final Weights rows;
+        private final int[] out;
+        private final int width;
+        private final int from;
+        private final int to;
+
+        private Rows(Pixels pixels, Weights columns, Weights rows, int[] out, int width, int from, int to) {
+            this.pixels = pixels;
+            this.columns = columns;
+            this.rows = rows;
+            this.out = out;
+            this.width = width;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > ROWS_PER_TASK && getPool() != null) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Rows(pixels, columns, rows, out, width, from, middle),
+                    new Rows(pixels, columns, rows, out, width, middle, to));
+                return;
+            }
+            int channels = width * 3;
+            float[] scratch = scratch(channels * 2);
+            for (int y = from; y < to; y++) {
+                Arrays.fill(scratch, channels, channels * 2, 0f);
+                int start = rows.start[y];
+                for (int k = 0; k < rows.count[y]; k++) {
+                    float weight = rows.weights[y * rows.stride + k];
+                    pixels.resampleRow(start + k, columns, scratch);
+                    for (int i = 0; i < channels; i++) {
+                        scratch[channels + i] += weight * scratch[i];
+                    }
+                }
+                int offset = y * width;
+                for (int x = 0, i = channels; x < width; x++, i += 3) {
+                    out[offset + x] = (clamp(scratch[i]) << 16) | (clamp(scratch[i + 1]) << 8) | clamp(scratch[i + 2]);
+                }
+            }
+        }
+
+        private static float[] scratch(int length) {
+            float[] buffer = SCRATCH.get();
+            if (buffer.length < length) {
+                buffer = new float[length];
+                SCRATCH.set(buffer);
+            }
+            return buffer;
+        }
+
+        private static int clamp(float value) {
+            int rounded = Math.round(value);
+            return rounded < 0 ? 0 : Math.min(255, rounded);
+        }
+    }
+
+    /** For every target index the covered source range and the share of each source pixel in it. */
+    private static final class Weights {
+        private final int[] start;
+        private final int[] count;
+        private final float[] weights;
+        private final int stride;
+
+        private Weights(int[] start, int[] count, float[] weights, int stride) {
+            this.start = start;
+            this.count = count;
+            this.weights = weights;
+            this.stride = stride;
+        }
+
+        static Weights of(int sourceSize, int targetSize) {
+            double scale = (double) sourceSize / targetSize;
+            int stride = (int) Math.ceil(scale) + 1;
+            int[] start = new int[targetSize];
+            int[] count = new int[targetSize];
+            float[] weights = new float[targetSize * stride];
+            for (int i = 0; i < targetSize; i++) {
+                double low = i * scale;
+                double high = Math.min(sourceSize, (i + 1) * scale);
+                int first = Math.min(sourceSize - 1, (int) Math.floor(low));
+                int last = Math.min(sourceSize, (int) Math.ceil(high));
+                start[i] = first;
+                int n = 0;
+                for (int j = first; j < last && n < stride; j++, n++) {
+                    double covered = Math.min(high, j + 1) - Math.max(low, j);
+                    weights[i * stride + n] = (float) (Math.max(0, covered) / (high - low));
+                }
+                count[i] = n;
+            }
+            return new Weights(start, count, weights, stride);
+        }
+    }
+
+    /** Direct view of an opaque 8-bit RGB or gray raster. */
+    private abstract static class Pixels {
+        /** Writes the horizontally resampled source row {@code y} as RGB triples to {@code out[0..]}. */
+        abstract void resampleRow(int y, Weights columns, float[] out);
+
+        static Pixels of(BufferedImage image) {
+            if (image.getColorModel() instanceof IndexColorModel || image.getColorModel().hasAlpha()) {
+                return null;
+            }
+            Raster raster = image.getRaster();
+            SampleModel model = raster.getSampleModel();
+            DataBuffer buffer = raster.getDataBuffer();
+            int originX = -raster.getSampleModelTranslateX();
+            int originY = -raster.getSampleModelTranslateY();
+            int colorSpace = image.getColorModel().getColorSpace().getType();
+
+            if (buffer instanceof DataBufferInt ints && model instanceof SinglePixelPackedSampleModel packed
+                && image.getColorModel() instanceof DirectColorModel && colorSpace == ColorSpace.TYPE_RGB) {
+                int[] masks = packed.getBitMasks();
+                int[] offsets = packed.getBitOffsets();
+                for (int i = 0; i < 3; i++) {
+                    if (masks[i] >>> offsets[i] != 0xFF) {
+                        return null;
+                    }
+                }
+                int base = ints.getOffset() + originY * packed.getScanlineStride() + originX;
+                return new PackedInts(ints.getData(), base, packed.getScanlineStride(), offsets);
+            }
+            if (buffer instanceof DataBufferByte bytes && model instanceof PixelInterleavedSampleModel component) {
+                int bands = component.getNumBands();
+                int[] bandOffsets = component.getBandOffsets();
+                int[] channels;
+                if (bands == 1 && colorSpace == ColorSpace.TYPE_GRAY) {
+                    channels = new int[] {bandOffsets[0], bandOffsets[0], bandOffsets[0]};
+                } else if (bands == 3 && colorSpace == ColorSpace.TYPE_RGB) {
+                    channels = new int[] {bandOffsets[0], bandOffsets[1], bandOffsets[2]};
+                } else {
+                    return null;
+                }
+                int pixelStride = component.getPixelStride();
+                int base = bytes.getOffset() + originY * component.getScanlineStride() + originX * pixelStride;
+                return new InterleavedBytes(bytes.getData(), base, component.getScanlineStride(), pixelStride, channels);
+            }
+            return null;
+        }
+    }
+
+    private static final class PackedInts extends Pixels {
+        private final int[] data;
+        private final int base;
+        private final int scanline;
+        private final int redShift;
+        private final int greenShift;
+        private final int blueShift;
+
+        private PackedInts(int[] data, int base, int scanline, int[] shifts) {
+            this.data = data;
+            this.base = base;
+            this.scanline = scanline;
+            this.redShift = shifts[0];
+            this.greenShift = shifts[1];
+            this.blueShift = shifts[2];
+        }
+
+        @Override
+        void resampleRow(int y, Weights columns, float[] out) {
+            int row = base + y * scanline;
+            for (int x = 0, o = 0; x < columns.start.length; x++, o += 3) {
+                float r = 0;
+                float g = 0;
+                float b = 0;
+                int index = row + columns.start[x];
+                int weightIndex = x * columns.stride;
+                for (int k = 0; k < columns.count[x]; k++) {
+                    int pixel = data[index + k];
+                    float weight = columns.weights[weightIndex + k];
+                    r += weight * ((pixel >>> redShift) & 0xFF);
+                    g += weight * ((pixel >>> greenShift) & 0xFF);
+                    b += weight * ((pixel >>> blueShift) & 0xFF);
+                }
+                out[o] = r;
+                out[o + 1] = g;
+                out[o + 2] = b;
+            }
+        }
+    }
+
+    private static final class InterleavedBytes extends Pixels {
+        private final byte[] data;
+        private final int base;
+        private final int scanline;
+        private final int pixelStride;
+        private final int red;
+        private final int green;
+        private final int blue;
+
+        private InterleavedBytes(byte[] data, int base, int scanline, int pixelStride, int[] channels) {
+            this.data = data;
+            this.base = base;
+            this.scanline = scanline;
+            this.pixelStride = pixelStride;
+            this.red = channels[0];
+            this.green = channels[1];
+            this.blue = channels[2];
+        }
+
+        @Override
+        void resampleRow(int y, Weights columns, float[] out) {
+            int row = base + y * scanline;
+            for (int x = 0, o = 0; x < columns.start.length; x++, o += 3) {
+                float r = 0;
+                float g = 0;
+                float b = 0;
+                int index = row + columns.start[x] * pixelStride;
+                int weightIndex = x * columns.stride;
+                for (int k = 0; k < columns.count[x]; k++, index += pixelStride) {
+                    float weight = columns.weights[weightIndex + k];
+                    r += weight * (data[index + red] & 0xFF);
+                    g += weight * (data[index + green] & 0xFF);
+                    b += weight * (data[index + blue] & 0xFF);
+                }
+                out[o] = r;
+                out[o + 1] = g;
+                out[o + 2] = b;
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.chasi.clockbot;
+
+import com.pengrad.telegrambot.TelegramBot;
+import java.util.concurrent.Executor;
+
+public record BotContext(TelegramBot bot,
+                         GeminiClient geminiClient,
+                         Database database,
+                         ResultCache resultCache,
+                         NearDuplicateIndex nearDuplicates,
+                         Config config,
+                         FairScheduler scheduler,
+                         AlbumCollector<ClockBotApp.AlbumPart> albums,
+                         Executor workers) {
+}
@@ -0,0 +1,114 @@
+package com.chasi.clockbot;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stops calling an endpoint while most recent calls fail. The breaker opens when at least half of the
+ * last {@value #WINDOW} calls failed, rejects everything for a cool-off period, then lets a single probe
+ * through. A successful probe closes it; a failed one reopens it with twice the cool-off.
+ */
+public class CircuitBreaker {
+    private enum State { CLOSED, HALF_OPEN, OPEN }
+
+    private static final int WINDOW = 20;
+    private static final int MIN_CALLS = 10;
+    private static final double FAILURE_RATE = 0.5;
+    private static final long INITIAL_OPEN_MS = 30_000;
+    private static final long MAX_OPEN_MS = 5 * 60_000;
+
+    private final String endpoint;
+    private final boolean[] failures = new boolean[WINDOW];
+    private final LongAdder rejected = new LongAdder();
+    private int calls;
+    private int next;
+    private State state = State.CLOSED;
+    private long openUntilMillis;
+    private long openMillis = INITIAL_OPEN_MS;
+    private boolean probeInFlight;
+
+    public CircuitBreaker(String endpoint) {
+        this.endpoint = endpoint;
+        Metrics.gauge("clockbot_upstream_circuit_state", "Circuit breaker state: 0 closed, 1 half-open, 2 open",
+            "endpoint").register(this::stateValue, endpoint);
+        Metrics.counterCallback("clockbot_upstream_circuit_rejected_total",
+            "Calls refused while the circuit breaker was open", "endpoint").register(rejected::sum, endpoint);
+    }
+
+    public synchronized boolean allowRequest() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN && System.currentTimeMillis() >= openUntilMillis) {
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+        }
+        if (state == State.HALF_OPEN && !probeInFlight) {
+            probeInFlight = true;
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            System.out.println("[CircuitBreaker] " + endpoint + " recovered, closing");
+            reset();
+            return;
+        }
+        record(false);
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            openMillis = Math.min(MAX_OPEN_MS, openMillis * 2);
+            open();
+            return;
+        }
+        record(true);
+        if (state == State.CLOSED && calls >= MIN_CALLS && failureCount() >= calls * FAILURE_RATE) {
+            open();
+        }
+    }
+
+    /** The permitted call never reached the upstream, e.g. it was refused by the concurrency limiter. */
+    public synchronized void onSkipped() {
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+        }
+    }
+
+    private void record(boolean failed) {
+        failures[next] = failed;
+        next = (next + 1) % WINDOW;
+        calls = Math.min(WINDOW, calls + 1);
+    }
+
+    private int failureCount() {
+        int count = 0;
+        for (int i = 0; i < calls; i++) {
+            if (failures[i]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntilMillis = System.currentTimeMillis() + openMillis;
+        System.err.println("[CircuitBreaker] " + endpoint + " is failing, rejecting calls for " + openMillis + " ms");
+    }
+
+    private void reset() {
+        state = State.CLOSED;
+        openMillis = INITIAL_OPEN_MS;
+        calls = 0;
+        next = 0;
+        probeInFlight = false;
+    }
+
+    private synchronized int stateValue() {
+        return state.ordinal();
+    }
+}
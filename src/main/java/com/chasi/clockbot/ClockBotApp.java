@@ -10,144 +10,543 @@ import com.pengrad.telegrambot.model.User;
 import com.pengrad.telegrambot.request.DeleteMessage;
 import com.pengrad.telegrambot.request.GetFile;
 import com.pengrad.telegrambot.request.SendMessage;
+import com.pengrad.telegrambot.request.SetWebhook;
+import com.pengrad.telegrambot.response.BaseResponse;
 import com.pengrad.telegrambot.response.GetFileResponse;
-import com.pengrad.telegrambot.response.SendResponse;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 public class ClockBotApp {
+    /** Start of the placeholder sent while a photo waits; the real answer follows in a new message. */
+    static final String PENDING_TEXT = "Пишу ответ...";
+
     private static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
         .connectTimeout(Duration.ofSeconds(20))
         .build();
+    private static final long SATURATED_BACKOFF_MS = 500;
+    private static final CompletableFuture<Integer> NO_PENDING_MESSAGE = CompletableFuture.completedFuture(null);
+    private static final AtomicInteger IMAGES_IN_FLIGHT = new AtomicInteger();
+    private static final Metrics.Counter REQUESTS = Metrics.counter("clockbot_image_requests_total",
+        "Answered image requests by result status", "status");
+    private static final Metrics.Counter ESTIMATE_CHECKS = Metrics.counter("clockbot_local_estimate_checks_total",
+        "Unconfident local estimates compared with the model's answer", "reader", "result");
+    private static final Metrics.Histogram IMAGE_BYTES = Metrics.histogram("clockbot_image_bytes",
+        "Image size before and after preprocessing", Metrics.SIZE_BUCKETS_BYTES, "stage");
+
     public static void main(String[] args) {
-        Config config = Config.fromEnv();
-        Database database = new Database(config.dbPath());
+        Runnable stop = start(Config.fromEnv());
+        Runtime.getRuntime().addShutdownHook(new Thread(stop, "shutdown"));
+    }
+
+    /**
+     * Starts polling or the webhook server with everything behind it.
+     *
+     * @return stops taking updates, lets work in progress finish and closes the database
+     */
+    public static Runnable start(Config config) {
+        Database database = new Database(config.dbPath(), config.dbQueueCapacity(), config.traceFilePath());
         GeminiClient geminiClient = new GeminiClient(config);
-        TelegramBot bot = new TelegramBot(config.telegramToken());
+        TelegramBot bot = new TelegramBot.Builder(config.telegramToken())
+            .apiUrl(config.telegramApiBaseUrl() + "/bot")
+            .fileApiUrl(config.telegramApiBaseUrl() + "/file/bot")
+            .build();
+        ResultCache resultCache = new ResultCache(database, config.cacheTtlSeconds() * 1000L, config.cacheMaxEntries());
+        NearDuplicateIndex nearDuplicates = new NearDuplicateIndex(config.nearDuplicateMaxDistance(),
+            config.nearDuplicateMaxChangedCells(), config.nearDuplicateWindowSeconds() * 1000L);
+        UpdateDispatcher dispatcher = new UpdateDispatcher(config.workerThreads(), config.maxPendingUpdates());
+        FairScheduler scheduler = new FairScheduler(config.imageConcurrency(), config.userRatePerMinute(),
+            config.userBurst(), config.userMaxQueued(), dispatcher.executor());
+        AlbumCollector<AlbumPart> albums = new AlbumCollector<>(config.albumWaitMs(), ClockBotApp::handleAlbum);
+        BotContext context = new BotContext(bot, geminiClient, database, resultCache, nearDuplicates, config,
+            scheduler, albums, dispatcher.executor());
+
+        registerMetrics(dispatcher, database, resultCache, nearDuplicates);
+        MetricsServer metricsServer = MetricsServer.start(config.metricsPort());
+
+        WebhookServer webhook = null;
+        if (config.webhookPort() > 0) {
+            webhook = WebhookServer.start(config.webhookPort(), config.webhookPath(), config.webhookSecret(),
+                update -> submitUpdate(update, dispatcher, context));
+            if (webhook == null) {
+                System.exit(1);
+            }
+        }
+
+        WebhookServer webhookServer = webhook;
+        Runnable stop = () -> {
+            if (webhookServer != null) {
+                webhookServer.stop(5);
+            } else {
+                bot.removeGetUpdatesListener();
+            }
+            dispatcher.awaitIdle(5_000);
+            albums.flushAll();
+            scheduler.awaitIdle(30_000);
+            dispatcher.shutdown(5_000);
+            database.close(10_000);
+            if (metricsServer != null) {
+                metricsServer.stop();
+            }
+        };
 
         System.out.println("Clock photo bot started");
 
-        bot.setUpdatesListener(updates -> handleUpdates(updates, bot, geminiClient, database, config),
+        if (webhook != null) {
+            if (config.webhookUrl() != null) {
+                registerWebhook(bot, config);
+            }
+            return stop;
+        }
+        bot.setUpdatesListener(updates -> handleUpdates(updates, dispatcher, context),
             exception -> System.err.println("Updates listener error: " + exception.getMessage()));
+        return stop;
     }
 
-    private static int handleUpdates(Iterable<Update> updates, TelegramBot bot, GeminiClient geminiClient,
-                                     Database database, Config config) {
+    private static void registerWebhook(TelegramBot bot, Config config) {
+        BaseResponse response = bot.execute(new SetWebhook()
+            .url(config.webhookUrl())
+            .secretToken(config.webhookSecret()));
+        if (response == null || !response.isOk()) {
+            System.err.println("[ClockBot] Failed to register webhook: "
+                + (response == null ? "no response" : response.description()));
+            return;
+        }
+        System.out.println("[ClockBot] Webhook registered");
+    }
+
+    private static void registerMetrics(UpdateDispatcher dispatcher, Database database, ResultCache resultCache,
+                                        NearDuplicateIndex nearDuplicates) {
+        Metrics.registerJvmMetrics();
+        Metrics.gauge("clockbot_dispatcher_pending", "Updates queued or in progress in the dispatcher")
+            .register(dispatcher::pending);
+        Metrics.gauge("clockbot_images_in_flight", "Image requests currently being processed")
+            .register(IMAGES_IN_FLIGHT::get);
+        Metrics.gauge("clockbot_db_queue_depth", "Rows waiting for the DB writer")
+            .register(database::queueDepth);
+        Metrics.counterCallback("clockbot_db_writes_lost_total", "DB rows that were not written", "reason")
+            .register(database::droppedWrites, "queue_full")
+            .register(database::failedWrites, "sql_error");
+        Metrics.counterCallback("clockbot_cache_lookups_total", "Result cache lookups", "tier", "result")
+            .register(resultCache::hits, "exact", "hit")
+            .register(resultCache::misses, "exact", "miss")
+            .register(resultCache::coalesced, "exact", "coalesced")
+            .register(nearDuplicates::hits, "near_duplicate", "hit")
+            .register(nearDuplicates::misses, "near_duplicate", "miss");
+    }
+
+    /**
+     * Hands every update to the dispatcher and confirms only the updates that were actually queued,
+     * so Telegram redelivers the rest once workers free up.
+     */
+    private static int handleUpdates(Iterable<Update> updates, UpdateDispatcher dispatcher, BotContext context) {
+        int confirmed = UpdatesListener.CONFIRMED_UPDATES_NONE;
         for (Update update : updates) {
-            Message message = update.message();
-            if (message == null) {
-                continue;
+            if (!submitUpdate(update, dispatcher, context)) {
+                pauseListener();
+                return confirmed;
             }
+            confirmed = update.updateId();
+        }
 
-            if (isImageDocument(message.document())) {
-                handleImageFile(message, message.document().fileId(), message.document().fileName(),
-                    bot, geminiClient, database, config);
-                continue;
-            }
+        return UpdatesListener.CONFIRMED_UPDATES_ALL;
+    }
 
-            if (message.photo() != null && message.photo().length > 0) {
-                handlePhotoMessage(message, bot, geminiClient, database, config);
-                continue;
-            }
+    /**
+     * Queues one update from either long polling or the webhook. Updates without a message are accepted
+     * and ignored.
+     *
+     * @return false if the dispatcher is saturated and the update should be delivered again later
+     */
+    private static boolean submitUpdate(Update update, UpdateDispatcher dispatcher, BotContext context) {
+        Message message = update.message();
+        if (message == null) {
+            return true;
+        }
+        Trace trace = Trace.forUpdate(update.updateId());
+        boolean queued = dispatcher.trySubmitAsync(message.chat().id(), () -> handleMessage(message, trace, context));
+        if (!queued) {
+            System.err.println("[ClockBot] Dispatcher saturated, pending=" + dispatcher.pending()
+                + ", deferring update " + update.updateId());
+        }
+        return queued;
+    }
 
-            if (message.text() != null) {
-                handleTextMessage(message, bot);
-                continue;
-            }
+    private static CompletableFuture<Void> handleMessage(Message message, Trace trace, BotContext context) {
+        if (isImageDocument(message.document())) {
+            Document document = message.document();
+            return handleImageFile(new ImageFile(message, document.fileId(), document.fileUniqueId(),
+                document.fileName(), trace), context);
+        }
 
-            bot.execute(new SendMessage(message.chat().id(),
-                "Пришлите фото часов, и я определю время."));
+        if (message.photo() != null && message.photo().length > 0) {
+            return handlePhotoMessage(message, trace, context);
         }
 
-        return UpdatesListener.CONFIRMED_UPDATES_ALL;
+        if (message.text() != null) {
+            return handleTextMessage(message, context.bot());
+        }
+
+        return reply(context.bot(), message.chat().id(), "Пришлите фото часов, и я определю время.");
+    }
+
+    private static void pauseListener() {
+        try {
+            Thread.sleep(SATURATED_BACKOFF_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
-    private static void handleTextMessage(Message message, TelegramBot bot) {
+    private static CompletableFuture<Void> handleTextMessage(Message message, TelegramBot bot) {
         String text = message.text().trim();
         if ("/start".equalsIgnoreCase(text) || "/help".equalsIgnoreCase(text)) {
-            bot.execute(new SendMessage(message.chat().id(),
-                "Пришлите фото часов. Я отвечу временем в формате HH:MM."));
-            return;
+            return reply(bot, message.chat().id(), "Пришлите фото часов. Я отвечу временем в формате HH:MM.");
         }
 
-        bot.execute(new SendMessage(message.chat().id(),
-            "Нужна фотография часов. Отправьте изображение."));
+        return reply(bot, message.chat().id(), "Нужна фотография часов. Отправьте изображение.");
     }
 
-    private static void handlePhotoMessage(Message message, TelegramBot bot, GeminiClient geminiClient,
-                                           Database database, Config config) {
+    private static CompletableFuture<Void> handlePhotoMessage(Message message, Trace trace, BotContext context) {
         PhotoSize best = pickBestPhoto(message.photo());
         if (best == null) {
-            bot.execute(new SendMessage(message.chat().id(),
-                "Не удалось получить фото. Попробуйте еще раз."));
-            return;
+            return reply(context.bot(), message.chat().id(), "Не удалось получить фото. Попробуйте еще раз.");
+        }
+        return handleImageFile(new ImageFile(message, best.fileId(), best.fileUniqueId(), null, trace), context);
+    }
+
+    /**
+     * Hands the image to the fair scheduler. The returned stage completes once the job is queued and its
+     * pending message sent, so the chat's next update is admitted without waiting for recognition;
+     * per-user ordering is kept by the scheduler. A repeated file is answered from the cache, but still
+     * behind the user's earlier photos and without a pending message. Parts of an album are only
+     * collected here and answered together by {@link #handleAlbum}.
+     */
+    private static CompletableFuture<Void> handleImageFile(ImageFile image, BotContext context) {
+        Message message = image.message();
+        Long chatId = message.chat().id();
+        if (message.mediaGroupId() != null && context.config().albumWaitMs() > 0) {
+            context.albums().add(chatId + ":" + message.mediaGroupId(), new AlbumPart(image, context));
+            return CompletableFuture.completedFuture(null);
         }
-        handleImageFile(message, best.fileId(), null, bot, geminiClient, database, config);
+
+        GeminiResult cachedByFile = context.resultCache().get(ResultCache.fileKey(image.fileUniqueId()));
+        if (cachedByFile != null) {
+            return schedule(message, 0, image.trace(), null, context, () ->
+                finishRequest(new Recognition(image, null, cachedByFile), NO_PENDING_MESSAGE, context));
+        }
+
+        CompletableFuture<Integer> pendingMessageId = new CompletableFuture<>();
+        return schedule(message, 1, image.trace(), pendingMessageId, context, () ->
+            recognize(image, context).thenCompose(recognition -> finishRequest(recognition, pendingMessageId, context)));
+    }
+
+    /**
+     * One scheduler job and one pending message for the whole album. Its photos are recognized in
+     * parallel and answered in a single numbered reply once the slowest one is done.
+     */
+    private static void handleAlbum(List<AlbumPart> parts) {
+        BotContext context = parts.get(0).context();
+        List<ImageFile> images = parts.stream().map(AlbumPart::image).toList();
+        ImageFile first = images.get(0);
+        CompletableFuture<Integer> pendingMessageId = new CompletableFuture<>();
+        schedule(first.message(), images.size(), first.trace(), pendingMessageId, context, () -> {
+            List<CompletableFuture<Recognition>> recognitions = images.stream()
+                .map(image -> recognize(image, context))
+                .toList();
+            return CompletableFuture.allOf(recognitions.toArray(CompletableFuture[]::new))
+                .thenCompose(ignored -> finishAlbum(
+                    recognitions.stream().map(CompletableFuture::join).toList(), pendingMessageId, context));
+        });
     }
 
-    private static void handleImageFile(Message message, String fileId, String fileName, TelegramBot bot,
-                                        GeminiClient geminiClient, Database database, Config config) {
+    /**
+     * Offers the job to the fair scheduler and, if it is admitted, sends the pending message with the
+     * queue position. {@code pendingMessageId} completes once that message exists, or with null; jobs
+     * that answer at once pass null and get no pending message.
+     */
+    private static CompletableFuture<Void> schedule(Message message, int images, Trace trace,
+                                                    CompletableFuture<Integer> pendingMessageId, BotContext context,
+                                                    Supplier<CompletableFuture<Void>> job) {
+        TelegramBot bot = context.bot();
         Long chatId = message.chat().id();
-        Integer pendingMessageId = sendPendingMessage(bot, chatId);
+        User user = message.from();
+        long userId = user != null ? user.id() : chatId;
+        Trace.Span queueSpan = trace.span("queue");
+        FairScheduler.Admission admission = context.scheduler().submit(userId, images, () -> {
+            queueSpan.end();
+            IMAGES_IN_FLIGHT.addAndGet(images);
+            return job.get().whenComplete((ignored, error) -> IMAGES_IN_FLIGHT.addAndGet(-images));
+        });
+        if (!admission.accepted()) {
+            System.out.println("[ClockBot] Refused " + images + " image(s) from user " + userId + ": "
+                + admission.rejection());
+            return admission.firstRejection()
+                ? reply(bot, chatId, "Слишком много фото подряд. Подождите минуту и отправьте снова.")
+                : CompletableFuture.completedFuture(null);
+        }
+
+        if (pendingMessageId == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Trace.Span pendingSpan = trace.span("pending_message");
+        return sendPendingMessage(bot, chatId, admission.position())
+            .thenAccept(id -> {
+                pendingSpan.end();
+                pendingMessageId.complete(id);
+            });
+    }
+
+    /**
+     * Recognizes one image once the scheduler gave its job a slot. GetFile goes out right away; download,
+     * preprocessing and recognition follow on the workers. The result is null if the file could not be
+     * fetched from Telegram.
+     */
+    private static CompletableFuture<Recognition> recognize(ImageFile image, BotContext context) {
+        GeminiResult cachedByFile = context.resultCache().get(ResultCache.fileKey(image.fileUniqueId()));
+        if (cachedByFile != null) {
+            return CompletableFuture.completedFuture(new Recognition(image, null, cachedByFile));
+        }
 
-        GetFileResponse getFileResponse = bot.execute(new GetFile(fileId));
+        Trace.Span getFileSpan = image.trace().span("get_file");
+        return TelegramAsync.execute(context.bot(), new GetFile(image.fileId()))
+            .handle((response, error) -> {
+                getFileSpan.end();
+                if (error != null) {
+                    System.err.println("[ClockBot] GetFile failed: " + error.getMessage());
+                    return null;
+                }
+                return response;
+            })
+            .thenComposeAsync(getFileResponse -> recognizeFile(image, getFileResponse, context), context.workers());
+    }
+
+    private static CompletableFuture<Recognition> recognizeFile(ImageFile image, GetFileResponse getFileResponse,
+                                                                BotContext context) {
+        ResultCache cache = context.resultCache();
+        Trace trace = image.trace();
         if (getFileResponse == null || !getFileResponse.isOk() || getFileResponse.file() == null) {
-            deletePendingMessage(bot, chatId, pendingMessageId);
-            bot.execute(new SendMessage(chatId,
-                "Не удалось скачать фото. Попробуйте другое изображение."));
-            return;
+            return CompletableFuture.completedFuture(new Recognition(image, null, null));
         }
 
+        String fileId = image.fileId();
+        String fileKey = ResultCache.fileKey(image.fileUniqueId());
         String filePath = getFileResponse.file().filePath();
-        String imageUrl = "https://api.telegram.org/file/bot" + config.telegramToken() + "/" + filePath;
-        String resolvedFileName = fileName != null && !fileName.isBlank()
-            ? fileName
+        String imageUrl = context.config().telegramApiBaseUrl() + "/file/bot" + context.config().telegramToken()
+            + "/" + filePath;
+        String resolvedFileName = image.fileName() != null && !image.fileName().isBlank()
+            ? image.fileName()
             : fileNameFromPath(filePath, fileId);
-        byte[] imageBytes = downloadTelegramFile(imageUrl);
-        ProcessedImage processed = ImagePreprocessor.preprocess(imageBytes, resolvedFileName);
-        if (processed != null && processed.bytes() != null) {
-            logImageSize(imageBytes, processed.bytes());
-            imageBytes = processed.bytes();
+        ProcessedImage processed = downloadAndPreprocess(imageUrl, getFileResponse.file().fileSize(),
+            resolvedFileName, context.config(), trace);
+        if (processed.rejection() != null) {
+            return CompletableFuture.completedFuture(
+                new Recognition(image, imageUrl, GeminiResult.rejected(processed.rejection())));
+        }
+        ImageFingerprint fingerprint = processed.fingerprint();
+        byte[] imageBytes = processed.bytes();
+        if (processed.originalSize() > 0) {
+            IMAGE_BYTES.observe(processed.originalSize(), "original");
+        }
+        if (imageBytes != null) {
+            IMAGE_BYTES.observe(imageBytes.length, "processed");
+            logImageSize(processed.originalSize(), imageBytes.length);
             resolvedFileName = processed.fileName();
         }
 
-        GeminiResult result = geminiClient.extractTime(imageUrl, imageBytes, resolvedFileName);
-        String responseText = result.time().equals("UNKNOWN")
-            ? "Не удалось определить время. Попробуйте другое фото."
-            : result.time();
+        String contentKey = ResultCache.contentKey(imageBytes);
+        GeminiResult cachedByContent = cache.get(contentKey);
+        if (cachedByContent != null) {
+            cache.put(fileKey, cachedByContent);
+            return CompletableFuture.completedFuture(new Recognition(image, imageUrl, cachedByContent));
+        }
 
-        deletePendingMessage(bot, chatId, pendingMessageId);
-        bot.execute(new SendMessage(chatId, responseText));
+        long chatId = image.message().chat().id();
+        GeminiResult nearDuplicate = context.nearDuplicates().find(chatId, fingerprint);
+        if (nearDuplicate != null) {
+            cache.put(fileKey, nearDuplicate);
+            return CompletableFuture.completedFuture(new Recognition(image, imageUrl, nearDuplicate));
+        }
 
-        User user = message.from();
-        database.logRequest(new RequestLog(
+        GeminiResult digital = readDigitalDisplay(processed.luma(), context.config(), trace);
+        if (digital != null) {
+            return CompletableFuture.completedFuture(new Recognition(image, imageUrl, digital));
+        }
+        AnalogClockReader.Reading analog = readAnalogDial(processed, context.config(), trace);
+        if (analog != null && analog.confidence() * 100 >= context.config().analogReaderMinConfidence()) {
+            return CompletableFuture.completedFuture(
+                new Recognition(image, imageUrl, GeminiResult.local("analog", analog.time(), analog.describe())));
+        }
+
+        String uploadFileName = resolvedFileName;
+        CompletableFuture<GeminiResult> recognition = contentKey == null
+            ? context.geminiClient().extractTime(imageUrl, imageBytes, uploadFileName, trace)
+            : cache.load(contentKey, () -> context.geminiClient().extractTime(imageUrl, imageBytes, uploadFileName, trace));
+        return recognition.thenApplyAsync(result -> {
+            if (analog != null) {
+                ESTIMATE_CHECKS.inc("analog", compareEstimate(analog.time(), result));
+            }
+            cache.put(fileKey, result);
+            context.nearDuplicates().add(chatId, fingerprint, result);
+            return new Recognition(image, imageUrl, result);
+        }, context.workers());
+    }
+
+    /**
+     * Reads a seven-segment display locally. Only confident readings are returned. They are kept out of
+     * the caches and the near-duplicate index, so a misread does not outlive the photo it came from.
+     */
+    private static GeminiResult readDigitalDisplay(GrayImage luma, Config config, Trace trace) {
+        if (luma == null || config.digitalReaderMinConfidence() == 0) {
+            return null;
+        }
+        Trace.Span span = trace.span("local_digital");
+        SevenSegmentReader.Reading reading = SevenSegmentReader.read(luma);
+        span.detail(reading == null ? "none" : reading.describe()).end();
+        if (reading == null || reading.confidence() * 100 < config.digitalReaderMinConfidence()) {
+            return null;
+        }
+        return GeminiResult.local("digital", reading.time(), reading.describe());
+    }
+
+    /**
+     * @return the dial estimate at any confidence, or null if the reader is off or there is no dial. The
+     *         dial found while locating the clock for the crop is reused; if it found none, none is sought.
+     */
+    private static AnalogClockReader.Reading readAnalogDial(ProcessedImage processed, Config config, Trace trace) {
+        GrayImage luma = processed.luma();
+        boolean located = config.clockCropMarginPercent() > 0;
+        if (luma == null || config.analogReaderMinConfidence() == 0 || (located && processed.dial() == null)) {
+            return null;
+        }
+        Trace.Span span = trace.span("local_analog");
+        AnalogClockReader.Reading reading = located
+            ? AnalogClockReader.read(luma, processed.dial())
+            : AnalogClockReader.read(luma);
+        span.detail(reading == null ? "none" : reading.describe()).end();
+        return reading;
+    }
+
+    /**
+     * Compares a twelve-hour dial estimate with the model's answer, which may be on a 24-hour clock.
+     * Agreement within five minutes tells how far the threshold could be lowered.
+     */
+    private static String compareEstimate(String estimate, GeminiResult result) {
+        if (!"ok".equals(result.status()) || "UNKNOWN".equals(result.time())) {
+            return "no_answer";
+        }
+        int difference = Math.abs(minutesOnDial(estimate) - minutesOnDial(result.time()));
+        return Math.min(difference, 12 * 60 - difference) <= 5 ? "agree" : "disagree";
+    }
+
+    private static int minutesOnDial(String time) {
+        int hours = Integer.parseInt(time.substring(0, 2));
+        int minutes = Integer.parseInt(time.substring(3, 5));
+        return hours % 12 * 60 + minutes;
+    }
+
+    /** Completes once the reply is sent; the request row is queued for the DB writer afterwards. */
+    private static CompletableFuture<Void> finishRequest(Recognition recognition,
+                                                         CompletableFuture<Integer> pendingMessageId,
+                                                         BotContext context) {
+        String text = recognition.result() == null
+            ? "Не удалось скачать фото. Попробуйте другое изображение."
+            : responseText(recognition.result(), context.config());
+        return sendAnswer(recognition.image(), text, pendingMessageId, context)
+            .thenRun(() -> logRequest(recognition, context));
+    }
+
+    private static CompletableFuture<Void> finishAlbum(List<Recognition> recognitions,
+                                                       CompletableFuture<Integer> pendingMessageId,
+                                                       BotContext context) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < recognitions.size(); i++) {
+            Recognition recognition = recognitions.get(i);
+            if (i > 0) {
+                text.append('\n');
+            }
+            text.append(i + 1).append(". ").append(recognition.result() == null
+                ? "Не удалось скачать фото."
+                : responseText(recognition.result(), context.config()));
+        }
+        return sendAnswer(recognitions.get(0).image(), text.toString(), pendingMessageId, context)
+            .thenRun(() -> recognitions.forEach(recognition -> logRequest(recognition, context)));
+    }
+
+    private static CompletableFuture<Void> sendAnswer(ImageFile image, String text,
+                                                      CompletableFuture<Integer> pendingMessageId,
+                                                      BotContext context) {
+        TelegramBot bot = context.bot();
+        Long chatId = image.message().chat().id();
+        return pendingMessageId.thenCompose(id -> {
+            Trace.Span replySpan = image.trace().span("reply");
+            deletePendingMessage(bot, chatId, id);
+            return reply(bot, chatId, text).whenComplete((ignored, error) -> replySpan.end());
+        });
+    }
+
+    /** Files that could not be fetched from Telegram never reached recognition and are not logged. */
+    private static void logRequest(Recognition recognition, BotContext context) {
+        GeminiResult result = recognition.result();
+        if (result == null) {
+            return;
+        }
+        REQUESTS.inc(result.status());
+        ImageFile image = recognition.image();
+        User user = image.message().from();
+        context.database().logRequest(new RequestLog(
             user != null ? user.id() : null,
             user != null ? user.username() : null,
-            fileId,
-            imageUrl,
+            image.fileId(),
+            recognition.imageUrl(),
             result.time(),
             result.status(),
-            result.errorMessage()
+            result.errorMessage(),
+            image.trace().id(),
+            image.trace().spans()
         ));
     }
 
-    private static Integer sendPendingMessage(TelegramBot bot, Long chatId) {
-        SendResponse response = bot.execute(new SendMessage(chatId, "Пишу ответ..."));
-        if (response == null || !response.isOk() || response.message() == null) {
-            return null;
-        }
-        return response.message().messageId();
+    private static CompletableFuture<Void> reply(TelegramBot bot, Long chatId, String text) {
+        return TelegramAsync.execute(bot, new SendMessage(chatId, text))
+            .handle((response, error) -> {
+                if (error != null) {
+                    System.err.println("[ClockBot] Failed to send message: " + error.getMessage());
+                } else if (response == null || !response.isOk()) {
+                    System.err.println("[ClockBot] Telegram rejected message: "
+                        + (response == null ? "no response" : response.description()));
+                }
+                return null;
+            });
+    }
+
+    /** Completes with null if the message could not be sent; the request goes on without it. */
+    private static CompletableFuture<Integer> sendPendingMessage(TelegramBot bot, Long chatId, int queuePosition) {
+        String text = queuePosition > 0
+            ? PENDING_TEXT + " Перед вами в очереди: " + queuePosition
+            : PENDING_TEXT;
+        return TelegramAsync.execute(bot, new SendMessage(chatId, text))
+            .handle((response, error) -> {
+                if (error != null || response == null || !response.isOk() || response.message() == null) {
+                    return null;
+                }
+                return response.message().messageId();
+            });
     }
 
     private static void deletePendingMessage(TelegramBot bot, Long chatId, Integer messageId) {
         if (messageId == null) {
             return;
         }
-        bot.execute(new DeleteMessage(chatId, messageId));
+        TelegramAsync.execute(bot, new DeleteMessage(chatId, messageId));
     }
 
     private static PhotoSize pickBestPhoto(PhotoSize[] photos) {
@@ -179,19 +578,73 @@ public class ClockBotApp {
         return mime != null && mime.startsWith("image/");
     }
 
-    private static byte[] downloadTelegramFile(String url) {
+    private static String responseText(GeminiResult result, Config config) {
+        if ("rejected".equals(result.status())) {
+            if (ProcessedImage.REJECTED_TOO_LARGE.equals(result.errorMessage())) {
+                return "Файл слишком большой. Отправьте изображение до "
+                    + config.maxDownloadBytes() / (1024 * 1024) + " МБ.";
+            }
+            return switch (result.errorMessage()) {
+                case ProcessedImage.REJECTED_TOO_SMALL ->
+                    "Фото слишком маленькое. Отправьте снимок в более высоком разрешении.";
+                case ProcessedImage.REJECTED_LOW_CONTRAST ->
+                    "Фото слишком темное или пустое. Сфотографируйте часы при хорошем освещении.";
+                case ProcessedImage.REJECTED_BLURRY -> "Фото размыто. Сфотографируйте часы четче.";
+                case ProcessedImage.REJECTED_NO_CLOCK -> "Не вижу на фото часов. Отправьте фото циферблата или дисплея.";
+                default -> "Это не похоже на изображение. Отправьте фото часов в формате JPEG или PNG.";
+            };
+        }
+        if ("unavailable".equals(result.status())) {
+            return "Сервис распознавания сейчас перегружен. Попробуйте через пару минут.";
+        }
+        return result.time().equals("UNKNOWN")
+            ? "Не удалось определить время. Попробуйте другое фото."
+            : result.time();
+    }
+
+    /**
+     * Streams the Telegram file straight into the decoder. Files above {@code maxBytes} are refused by
+     * their declared size when possible and otherwise as soon as the limit is crossed.
+     */
+    private static ProcessedImage downloadAndPreprocess(String url, Long declaredSize, String fileName,
+                                                        Config config, Trace trace) {
+        long maxBytes = config.maxDownloadBytes();
+        if (declaredSize != null && declaredSize > maxBytes) {
+            return ProcessedImage.rejected(ProcessedImage.REJECTED_TOO_LARGE, declaredSize);
+        }
+        Trace.Span downloadSpan = trace.span("download");
+        HttpResponse<InputStream> response = openTelegramFile(url);
+        downloadSpan.end();
+        if (response == null) {
+            return new ProcessedImage(null, fileName, null, null, null, 0, null);
+        }
+        try (InputStream body = response.body()) {
+            long contentLength = response.headers().firstValueAsLong("Content-Length").orElse(-1L);
+            if (contentLength > maxBytes) {
+                return ProcessedImage.rejected(ProcessedImage.REJECTED_TOO_LARGE, contentLength);
+            }
+            return ImagePreprocessor.preprocess(body, fileName, maxBytes, config.imageTargetBytes(),
+                config.clockCropMarginPercent(), ImageScreen.from(config), trace);
+        } catch (IOException e) {
+            System.err.println("Download failed: " + e.getMessage());
+            return new ProcessedImage(null, fileName, null, null, null, 0, null);
+        }
+    }
+
+    private static HttpResponse<InputStream> openTelegramFile(String url) {
         HttpRequest request = HttpRequest.newBuilder()
             .uri(URI.create(url))
             .timeout(Duration.ofSeconds(60))
             .GET()
             .build();
         try {
-            HttpResponse<byte[]> response = HTTP_CLIENT.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            HttpResponse<InputStream> response = HTTP_CLIENT.send(request, HttpResponse.BodyHandlers.ofInputStream());
             if (response.statusCode() < 200 || response.statusCode() >= 300) {
                 System.err.println("Failed to download Telegram file. Status=" + response.statusCode());
+                response.body().close();
                 return null;
             }
-            return response.body();
+            return response;
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             System.err.println("Download interrupted: " + e.getMessage());
@@ -214,13 +667,21 @@ public class ClockBotApp {
         return name;
     }
 
-    private static void logImageSize(byte[] original, byte[] processed) {
-        if (original == null || processed == null) {
-            return;
-        }
-        if (original.length == processed.length) {
+    /** An image sent as a photo or as an image document, with the trace of its update. */
+    private record ImageFile(Message message, String fileId, String fileUniqueId, String fileName, Trace trace) {
+    }
+
+    /** {@code result} is null when the file could not be fetched from Telegram. */
+    private record Recognition(ImageFile image, String imageUrl, GeminiResult result) {
+    }
+
+    record AlbumPart(ImageFile image, BotContext context) {
+    }
+
+    private static void logImageSize(long original, long processed) {
+        if (original == processed) {
             return;
         }
-        System.out.println("[ClockBot] Image bytes " + original.length + " -> " + processed.length);
+        System.out.println("[ClockBot] Image bytes " + original + " -> " + processed);
     }
 }
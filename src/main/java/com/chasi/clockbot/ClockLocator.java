@@ -0,0 +1,67 @@
+package com.chasi.clockbot;
+
+import java.util.Locale;
+
+/**
+ * Finds where the clock is in a photo so that the model gets more pixels on the hands or digits in
+ * fewer bytes. A well-supported dial is taken first, then a row of display digits that reads as a time
+ * with confidence; digits that do not, like a year printed next to the clock, are no display. The region
+ * is widened by a margin and clipped to the frame. When nothing is found, or the region would still cover
+ * most of the frame, the full frame is kept.
+ */
+public final class ClockLocator {
+    /**
+     * @param dial the dial found in the photo, null if there is none; also used by {@link AnalogClockReader}
+     * @param crop {x, y, width, height} in luma pixels, or null to keep the full frame
+     * @param source {@code dial} or {@code display} if the clock was found, even when it fills too much of the
+     *               frame to be cropped; null if it was not
+     */
+    public record Location(DialDetector.Dial dial, int[] crop, String source) {
+        public String describe() {
+            return crop == null
+                ? "full_frame"
+                : String.format(Locale.ROOT, "%s %dx%d+%d+%d", source, crop[2], crop[3], crop[0], crop[1]);
+        }
+    }
+
+    /** Dials found on less of their circumference may be a round object next to the clock. */
+    private static final double MIN_CROP_COVERAGE = 0.7;
+    /** The confidence at which {@link SevenSegmentReader} makes no mistakes on the test corpus. */
+    private static final double MIN_DISPLAY_CONFIDENCE = 0.85;
+    /** A crop that keeps more of the frame than this saves too little to be worth the risk. */
+    private static final double MAX_CROP_AREA = 0.5;
+
+    private ClockLocator() {
+    }
+
+    /** @param margin added on every side, as a fraction of the dial diameter or the digit row width */
+    public static Location locate(GrayImage luma, double margin) {
+        DialDetector.Dial dial = DialDetector.find(luma);
+        if (dial != null && dial.coverage() >= MIN_CROP_COVERAGE) {
+            double half = dial.radius() * (1 + 2 * margin);
+            int[] crop = clip(luma, dial.centerX() - half, dial.centerY() - half,
+                dial.centerX() + half, dial.centerY() + half);
+            return new Location(dial, crop, "dial");
+        }
+        SevenSegmentReader.Reading display = SevenSegmentReader.read(luma);
+        if (display != null && display.confidence() >= MIN_DISPLAY_CONFIDENCE) {
+            int[] row = display.bounds();
+            double pad = (row[2] - row[0] + 1) * margin;
+            int[] crop = clip(luma, row[0] - pad, row[1] - pad, row[2] + 1 + pad, row[3] + 1 + pad);
+            return new Location(dial, crop, "display");
+        }
+        return new Location(dial, null, null);
+    }
+
+    /** @return the region within the frame, or null if it is not much smaller than the frame */
+    private static int[] clip(GrayImage luma, double minX, double minY, double maxX, double maxY) {
+        int x = (int) Math.max(0, Math.floor(minX));
+        int y = (int) Math.max(0, Math.floor(minY));
+        int width = (int) Math.min(luma.width(), Math.ceil(maxX)) - x;
+        int height = (int) Math.min(luma.height(), Math.ceil(maxY)) - y;
+        if (width <= 0 || height <= 0 || (double) width * height > MAX_CROP_AREA * luma.width() * luma.height()) {
+            return null;
+        }
+        return new int[] {x, y, width, height};
+    }
+}
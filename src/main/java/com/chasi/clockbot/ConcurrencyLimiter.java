@@ -0,0 +1,147 @@
+package com.chasi.clockbot;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * AIMD limit on concurrent calls to one upstream endpoint. The limit grows by one per limit's worth of
+ * fast successful calls and shrinks by a factor on 429, 503 or timeouts, at most once per cooldown so a
+ * burst of failures from the same window counts once. Callers beyond the limit wait in a short queue;
+ * when the queue is full or the wait takes too long they fail fast with
+ * {@link UpstreamException.Unavailable}.
+ */
+public class ConcurrencyLimiter {
+    public enum Outcome { SUCCESS, OVERLOAD, IGNORE }
+
+    private static final int INITIAL_LIMIT = 8;
+    private static final double DECREASE_FACTOR = 0.7;
+    private static final long DECREASE_COOLDOWN_MS = 1_000;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double LATENCY_SMOOTHING = 0.05;
+    private static final int QUEUE_PER_PERMIT = 4;
+    private static final int MIN_QUEUE = 64;
+    private static final long QUEUE_TIMEOUT_MS = 60_000;
+
+    private static final Metrics.Counter REJECTED = Metrics.counter("clockbot_upstream_rejected_total",
+        "Upstream calls refused locally by the concurrency limiter", "endpoint", "reason");
+
+    private final String endpoint;
+    private final int maxLimit;
+    private final ArrayDeque<CompletableFuture<Permit>> waiters = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private double averageLatencyMs = Double.NaN;
+    private long lastDecreaseMillis;
+
+    public ConcurrencyLimiter(String endpoint, int maxLimit) {
+        this.endpoint = endpoint;
+        this.maxLimit = maxLimit;
+        this.limit = Math.min(INITIAL_LIMIT, maxLimit);
+        Metrics.gauge("clockbot_upstream_concurrency_limit", "Current adaptive concurrency limit", "endpoint")
+            .register(this::limit, endpoint);
+        Metrics.gauge("clockbot_upstream_in_flight", "Upstream calls holding a limiter permit", "endpoint")
+            .register(this::inFlight, endpoint);
+    }
+
+    /** Completes once a slot is free; the permit must be released exactly once. */
+    public CompletableFuture<Permit> acquire() {
+        CompletableFuture<Permit> waiter = new CompletableFuture<>();
+        synchronized (this) {
+            if (inFlight < (int) limit && waiters.isEmpty()) {
+                inFlight++;
+                waiter.complete(new Permit());
+                return waiter;
+            }
+            waiters.removeIf(CompletableFuture::isDone);
+            if (waiters.size() >= Math.max(MIN_QUEUE, (int) limit * QUEUE_PER_PERMIT)) {
+                REJECTED.inc(endpoint, "queue_full");
+                waiter.completeExceptionally(new UpstreamException.Unavailable(endpoint + " queue is full"));
+                return waiter;
+            }
+            waiters.add(waiter);
+        }
+        CompletableFuture.delayedExecutor(QUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS).execute(() -> {
+            if (waiter.completeExceptionally(new UpstreamException.Unavailable(
+                "Waited " + QUEUE_TIMEOUT_MS + " ms for a free " + endpoint + " slot"))) {
+                REJECTED.inc(endpoint, "queue_timeout");
+            }
+        });
+        return waiter;
+    }
+
+    /** @return a permit if a slot is free and nobody is queued for one, otherwise null; never waits */
+    public synchronized Permit tryAcquire() {
+        if (inFlight >= (int) limit || !waiters.isEmpty()) {
+            return null;
+        }
+        inFlight++;
+        return new Permit();
+    }
+
+    public synchronized double limit() {
+        return limit;
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    private void release(Outcome outcome, long latencyMs) {
+        synchronized (this) {
+            inFlight--;
+            long now = System.currentTimeMillis();
+            if (outcome == Outcome.OVERLOAD) {
+                if (now - lastDecreaseMillis >= DECREASE_COOLDOWN_MS) {
+                    limit = Math.max(1, limit * DECREASE_FACTOR);
+                    lastDecreaseMillis = now;
+                }
+            } else if (outcome == Outcome.SUCCESS) {
+                boolean fast = Double.isNaN(averageLatencyMs) || latencyMs <= averageLatencyMs * LATENCY_TOLERANCE;
+                averageLatencyMs = Double.isNaN(averageLatencyMs)
+                    ? latencyMs
+                    : averageLatencyMs + LATENCY_SMOOTHING * (latencyMs - averageLatencyMs);
+                if (fast && inFlight + 1 >= (int) limit / 2) {
+                    limit = Math.min(maxLimit, limit + 1.0 / limit);
+                }
+            }
+        }
+        grantWaiters();
+    }
+
+    /** Completes waiters outside the lock so their continuations do not run while holding it. */
+    private void grantWaiters() {
+        while (true) {
+            CompletableFuture<Permit> waiter;
+            synchronized (this) {
+                if (inFlight >= (int) limit || waiters.isEmpty()) {
+                    return;
+                }
+                waiter = waiters.poll();
+                if (waiter.isDone()) {
+                    continue;
+                }
+                inFlight++;
+            }
+            if (!waiter.complete(new Permit())) {
+                synchronized (this) {
+                    inFlight--;
+                }
+            }
+        }
+    }
+
+    public final class Permit {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit() {
+        }
+
+        public void release(Outcome outcome, long latencyMs) {
+            if (released.compareAndSet(false, true)) {
+                ConcurrencyLimiter.this.release(outcome, latencyMs);
+            }
+        }
+    }
+}
@@ -2,23 +2,119 @@ package com.chasi.clockbot;
 
 import java.nio.file.Path;
 import java.util.Locale;
+import java.util.Map;
 
 public record Config(String telegramToken,
+                     String telegramApiBaseUrl,
                      String kieApiKey,
                      String kieApiBaseUrl,
                      String kieUploadBaseUrl,
                      String dbPath,
-                     String systemPrompt) {
+                     int dbQueueCapacity,
+                     String traceFilePath,
+                     String systemPrompt,
+                     long maxDownloadBytes,
+                     long imageTargetBytes,
+                     long inlineImageMaxBytes,
+                     int metricsPort,
+                     int webhookPort,
+                     String webhookPath,
+                     String webhookSecret,
+                     String webhookUrl,
+                     int workerThreads,
+                     int maxPendingUpdates,
+                     int imageConcurrency,
+                     int userRatePerMinute,
+                     int userBurst,
+                     int userMaxQueued,
+                     int albumWaitMs,
+                     int retryBudgetPercent,
+                     int upstreamMaxConcurrency,
+                     int hedgePercentile,
+                     int hedgeBudgetPercent,
+                     int geminiBatchWindowMs,
+                     int geminiBatchMaxImages,
+                     int cacheTtlSeconds,
+                     int cacheMaxEntries,
+                     int nearDuplicateMaxDistance,
+                     int nearDuplicateMaxChangedCells,
+                     int nearDuplicateWindowSeconds,
+                     int digitalReaderMinConfidence,
+                     int analogReaderMinConfidence,
+                     int screenMinSide,
+                     int screenMinContrast,
+                     int screenMinSharpness,
+                     boolean screenRequireClock,
+                     int clockCropMarginPercent) {
 
     private static final String DEFAULT_PROMPT = "Ты специализированная модель. Твоя единственная задача определить время на фотографии часов и вернуть только время. Отвечай строго в формате HH:MM в 24-часовом виде с ведущим нулем. Если время определить невозможно, ответь UNKNOWN. Не используй символы звездочка и решетка. Не добавляй других слов.";
 
     public static Config fromEnv() {
-        String telegramToken = readRequired("TELEGRAM_BOT_TOKEN");
-        String kieApiKey = readRequired("KIE_API_KEY");
-        String kieApiBaseUrl = readOptional("KIE_API_BASE_URL", "https://api.kie.ai");
-        String kieUploadBaseUrl = readOptional("KIE_UPLOAD_BASE_URL", "https://kieai.redpandaai.co");
-        String dbPath = readOptional("DB_PATH", Path.of("data", "bot.db").toString());
-        String systemPrompt = readOptional("GEMINI_SYSTEM_PROMPT", DEFAULT_PROMPT);
+        return from(System.getenv());
+    }
+
+    /** Reads the settings from {@code env}, a map of environment variable names to values. */
+    public static Config from(Map<String, String> env) {
+        String telegramToken = readRequired(env, "TELEGRAM_BOT_TOKEN");
+        String telegramApiBaseUrl = readOptional(env, "TELEGRAM_API_BASE_URL", "https://api.telegram.org");
+        String kieApiKey = readRequired(env, "KIE_API_KEY");
+        String kieApiBaseUrl = readOptional(env, "KIE_API_BASE_URL", "https://api.kie.ai");
+        String kieUploadBaseUrl = readOptional(env, "KIE_UPLOAD_BASE_URL", "https://kieai.redpandaai.co");
+        String dbPath = readOptional(env, "DB_PATH", Path.of("data", "bot.db").toString());
+        int dbQueueCapacity = readPositiveInt(env, "DB_QUEUE_CAPACITY", 10_000);
+        String traceFilePath = readOptional(env, "TRACE_FILE", null);
+        String systemPrompt = readOptional(env, "GEMINI_SYSTEM_PROMPT", DEFAULT_PROMPT);
+        long maxDownloadBytes = readPositiveInt(env, "MAX_DOWNLOAD_MB", 20) * 1024L * 1024L;
+        long imageTargetBytes = readPositiveInt(env, "IMAGE_TARGET_KB", 300) * 1024L;
+        long inlineImageMaxBytes = readInt(env, "INLINE_IMAGE_MAX_KB", 512, 0) * 1024L;
+        int metricsPort = readInt(env, "METRICS_PORT", 9090, 0);
+        int webhookPort = readInt(env, "WEBHOOK_PORT", 0, 0);
+        String webhookPath = readOptional(env, "WEBHOOK_PATH", "/telegram/webhook");
+        String webhookSecret = readOptional(env, "WEBHOOK_SECRET", null);
+        String webhookUrl = readOptional(env, "WEBHOOK_URL", null);
+        int workerThreads = readPositiveInt(env, "WORKER_THREADS", 8);
+        int maxPendingUpdates = readPositiveInt(env, "MAX_PENDING_UPDATES", 256);
+        int imageConcurrency = readPositiveInt(env, "IMAGE_CONCURRENCY", 16);
+        int userRatePerMinute = readPositiveInt(env, "USER_RATE_PER_MINUTE", 10);
+        int userBurst = readPositiveInt(env, "USER_BURST", 5);
+        int userMaxQueued = readPositiveInt(env, "USER_MAX_QUEUED", 10);
+        int albumWaitMs = readInt(env, "ALBUM_WAIT_MS", 700, 0);
+        int retryBudgetPercent = readPositiveInt(env, "RETRY_BUDGET_PERCENT", 20);
+        int upstreamMaxConcurrency = readPositiveInt(env, "UPSTREAM_MAX_CONCURRENCY", 32);
+        int hedgePercentile = readInt(env, "HEDGE_PERCENTILE", 0, 0);
+        int hedgeBudgetPercent = readPositiveInt(env, "HEDGE_BUDGET_PERCENT", 5);
+        int geminiBatchWindowMs = readInt(env, "GEMINI_BATCH_WINDOW_MS", 0, 0);
+        int geminiBatchMaxImages = readPositiveInt(env, "GEMINI_BATCH_MAX_IMAGES", 4);
+        int cacheTtlSeconds = readPositiveInt(env, "CACHE_TTL_SECONDS", 24 * 60 * 60);
+        int cacheMaxEntries = readPositiveInt(env, "CACHE_MAX_ENTRIES", 10_000);
+        int nearDuplicateMaxDistance = readInt(env, "NEAR_DUPLICATE_MAX_DISTANCE", 10, 0);
+        int nearDuplicateMaxChangedCells = readInt(env, "NEAR_DUPLICATE_MAX_CHANGED_CELLS", 3, 0);
+        int nearDuplicateWindowSeconds = readInt(env, "NEAR_DUPLICATE_WINDOW_SECONDS", 0, 0);
+        int digitalReaderMinConfidence = readInt(env, "DIGITAL_READER_MIN_CONFIDENCE", 0, 0);
+        int analogReaderMinConfidence = readInt(env, "ANALOG_READER_MIN_CONFIDENCE", 0, 0);
+        int screenMinSide = readInt(env, "SCREEN_MIN_SIDE", 0, 0);
+        int screenMinContrast = readInt(env, "SCREEN_MIN_CONTRAST", 0, 0);
+        int screenMinSharpness = readInt(env, "SCREEN_MIN_SHARPNESS", 0, 0);
+        boolean screenRequireClock = readInt(env, "SCREEN_REQUIRE_CLOCK", 0, 0) > 0;
+        int clockCropMarginPercent = readInt(env, "CLOCK_CROP_MARGIN_PERCENT", 20, 0);
+
+        if (webhookPort > 0 && (webhookSecret == null || !webhookSecret.matches("[A-Za-z0-9_-]{1,256}"))) {
+            throw new IllegalArgumentException(
+                "WEBHOOK_SECRET of 1-256 characters A-Z, a-z, 0-9, _ or - is required when WEBHOOK_PORT is set");
+        }
+        if (!webhookPath.startsWith("/")) {
+            throw new IllegalArgumentException("WEBHOOK_PATH must start with /");
+        }
+
+        if (hedgePercentile >= 100) {
+            throw new IllegalArgumentException("HEDGE_PERCENTILE must be an integer < 100");
+        }
+        if (digitalReaderMinConfidence > 100) {
+            throw new IllegalArgumentException("DIGITAL_READER_MIN_CONFIDENCE must be an integer <= 100");
+        }
+        if (analogReaderMinConfidence > 100) {
+            throw new IllegalArgumentException("ANALOG_READER_MIN_CONFIDENCE must be an integer <= 100");
+        }
 
         if (systemPrompt.contains("*") || systemPrompt.contains("#")) {
             throw new IllegalArgumentException("System prompt must not contain '*' or '#'");
@@ -26,16 +122,52 @@ public record Config(String telegramToken,
 
         return new Config(
             telegramToken,
+            normalizeBaseUrl(telegramApiBaseUrl),
             kieApiKey,
             normalizeBaseUrl(kieApiBaseUrl),
             normalizeBaseUrl(kieUploadBaseUrl),
             dbPath,
-            systemPrompt
+            dbQueueCapacity,
+            traceFilePath,
+            systemPrompt,
+            maxDownloadBytes,
+            imageTargetBytes,
+            inlineImageMaxBytes,
+            metricsPort,
+            webhookPort,
+            webhookPath,
+            webhookSecret,
+            webhookUrl,
+            workerThreads,
+            maxPendingUpdates,
+            imageConcurrency,
+            userRatePerMinute,
+            userBurst,
+            userMaxQueued,
+            albumWaitMs,
+            retryBudgetPercent,
+            upstreamMaxConcurrency,
+            hedgePercentile,
+            hedgeBudgetPercent,
+            geminiBatchWindowMs,
+            geminiBatchMaxImages,
+            cacheTtlSeconds,
+            cacheMaxEntries,
+            nearDuplicateMaxDistance,
+            nearDuplicateMaxChangedCells,
+            nearDuplicateWindowSeconds,
+            digitalReaderMinConfidence,
+            analogReaderMinConfidence,
+            screenMinSide,
+            screenMinContrast,
+            screenMinSharpness,
+            screenRequireClock,
+            clockCropMarginPercent
         );
     }
 
-    private static String readRequired(String key) {
-        String value = System.getenv(key);
+    private static String readRequired(Map<String, String> env, String key) {
+        String value = env.get(key);
         if (value == null || value.isBlank()) {
             System.err.println("Missing required environment variable: " + key);
             System.exit(1);
@@ -43,14 +175,33 @@ public record Config(String telegramToken,
         return value.trim();
     }
 
-    private static String readOptional(String key, String defaultValue) {
-        String value = System.getenv(key);
+    private static String readOptional(Map<String, String> env, String key, String defaultValue) {
+        String value = env.get(key);
         if (value == null || value.isBlank()) {
             return defaultValue;
         }
         return value.trim();
     }
 
+    private static int readPositiveInt(Map<String, String> env, String key, int defaultValue) {
+        return readInt(env, key, defaultValue, 1);
+    }
+
+    private static int readInt(Map<String, String> env, String key, int defaultValue, int minValue) {
+        String value = readOptional(env, key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed >= minValue) {
+                return parsed;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException(key + " must be an integer >= " + minValue);
+    }
+
     private static String normalizeBaseUrl(String value) {
         if (value == null) {
             return null;
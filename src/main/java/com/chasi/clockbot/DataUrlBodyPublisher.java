@@ -0,0 +1,172 @@
+package com.chasi.clockbot;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+/**
+ * Request body for a JSON document in which some string values are {@code data:} URLs of images.
+ * The document is serialized with a placeholder in place of each such value; on the wire every
+ * placeholder is replaced by the base64 of its image, encoded chunk by chunk, so no encoded image ever
+ * exists as a whole in memory. The body can be subscribed to repeatedly, e.g. for retries.
+ */
+public final class DataUrlBodyPublisher implements HttpRequest.BodyPublisher {
+    /** Plain ASCII value that needs no JSON escaping and cannot occur in the rest of a payload. */
+    public static final String PLACEHOLDER = "@@clockbot-data-url@@";
+
+    private static final int CHUNK_BYTES = 3 * 4096;
+
+    public record Image(String mimeType, byte[] data) {
+    }
+
+    /** {@code texts[i]} precedes {@code images[i]}; the last text follows the last image. */
+    private final byte[][] texts;
+    private final byte[][] images;
+
+    private DataUrlBodyPublisher(byte[][] texts, byte[][] images) {
+        this.texts = texts;
+        this.images = images;
+    }
+
+    /**
+     * @param json serialized document containing {@link #PLACEHOLDER} exactly once as a string value
+     */
+    public static DataUrlBodyPublisher of(byte[] json, String mimeType, byte[] data) {
+        return of(json, List.of(new Image(mimeType, data)));
+    }
+
+    /**
+     * @param json serialized document containing {@link #PLACEHOLDER} once per image, in the same order
+     */
+    public static DataUrlBodyPublisher of(byte[] json, List<Image> images) {
+        byte[] placeholder = PLACEHOLDER.getBytes(StandardCharsets.US_ASCII);
+        byte[][] texts = new byte[images.size() + 1][];
+        byte[][] data = new byte[images.size()][];
+        int from = 0;
+        for (int i = 0; i < images.size(); i++) {
+            int index = indexOf(json, placeholder, from);
+            if (index < 0) {
+                throw new IllegalArgumentException("Payload has fewer data URL placeholders than images");
+            }
+            texts[i] = concat(Arrays.copyOfRange(json, from, index),
+                ("data:" + images.get(i).mimeType() + ";base64,").getBytes(StandardCharsets.US_ASCII));
+            data[i] = images.get(i).data();
+            from = index + placeholder.length;
+        }
+        texts[images.size()] = Arrays.copyOfRange(json, from, json.length);
+        if (indexOf(json, placeholder, from) >= 0) {
+            throw new IllegalArgumentException("Payload has more data URL placeholders than images");
+        }
+        return new DataUrlBodyPublisher(texts, data);
+    }
+
+    @Override
+    public long contentLength() {
+        long length = 0;
+        for (byte[] text : texts) {
+            length += text.length;
+        }
+        for (byte[] image : images) {
+            length += 4L * ((image.length + 2) / 3);
+        }
+        return length;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        HttpRequest.BodyPublishers.ofInputStream(this::open).subscribe(subscriber);
+    }
+
+    private InputStream open() {
+        List<InputStream> parts = new ArrayList<>(texts.length + images.length);
+        for (int i = 0; i < images.length; i++) {
+            parts.add(new ByteArrayInputStream(texts[i]));
+            parts.add(new Base64InputStream(images[i]));
+        }
+        parts.add(new ByteArrayInputStream(texts[images.length]));
+        return new SequenceInputStream(Collections.enumeration(parts));
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle, int from) {
+        outer:
+        for (int i = from; i <= haystack.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /** Base64 of a byte array, produced {@link #CHUNK_BYTES} input bytes at a time. */
+    private static final class Base64InputStream extends InputStream {
+        private final byte[] data;
+        private final byte[] input = new byte[CHUNK_BYTES];
+        private final byte[] encoded = new byte[CHUNK_BYTES / 3 * 4];
+        private int dataOffset;
+        private int encodedOffset;
+        private int encodedLength;
+
+        private Base64InputStream(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            if (!fill()) {
+                return -1;
+            }
+            return encoded[encodedOffset++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(length, encodedLength - encodedOffset);
+            System.arraycopy(encoded, encodedOffset, buffer, offset, count);
+            encodedOffset += count;
+            return count;
+        }
+
+        private boolean fill() {
+            if (encodedOffset < encodedLength) {
+                return true;
+            }
+            int remaining = data.length - dataOffset;
+            if (remaining <= 0) {
+                return false;
+            }
+            byte[] source = input;
+            if (remaining < CHUNK_BYTES) {
+                source = new byte[remaining];
+            }
+            System.arraycopy(data, dataOffset, source, 0, source.length);
+            dataOffset += source.length;
+            encodedLength = Base64.getEncoder().encode(source, encoded);
+            encodedOffset = 0;
+            return true;
+        }
+    }
+}
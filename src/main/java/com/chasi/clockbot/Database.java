@@ -5,16 +5,59 @@ import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * SQLite storage in WAL mode. Writes are queued and group-committed by a background writer over one
+ * long-lived connection; reads use a second connection so they never wait for a commit. Request rows
+ * are stored together with their trace spans in {@code request_spans}.
+ */
 public class Database {
+    private static final int MAX_BATCH_SIZE = 500;
+    private static final long POLL_INTERVAL_MS = 200;
+    private static final String INSERT_REQUEST_SQL =
+        "INSERT INTO requests (user_id, username, file_id, image_url, result_time, status, error, trace_id) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_SPAN_SQL =
+        "INSERT INTO request_spans (trace_id, name, started_at, duration_ms, bytes_in, bytes_out, detail) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPSERT_CACHE_SQL =
+        "INSERT OR REPLACE INTO result_cache (cache_key, result_time, raw_content, created_at) "
+            + "VALUES (?, ?, ?, ?)";
+    private static final String SELECT_CACHE_SQL =
+        "SELECT result_time, raw_content FROM result_cache WHERE cache_key = ? AND created_at >= ?";
+
     private final String jdbcUrl;
+    private final BlockingQueue<PendingWrite> queue;
+    private final AtomicLong droppedWrites = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+    private final TraceFile traceFile;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+    private Connection writeConnection;
+    private PreparedStatement insertRequest;
+    private PreparedStatement insertSpan;
+    private PreparedStatement upsertCache;
+    private Connection readConnection;
+    private PreparedStatement selectCache;
 
-    public Database(String dbPath) {
+    public Database(String dbPath, int queueCapacity, String traceFilePath) {
         ensureParentDirectory(dbPath);
         this.jdbcUrl = "jdbc:sqlite:" + dbPath;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.traceFile = TraceFile.open(traceFilePath);
         init();
+        this.writerThread = new Thread(this::runWriter, "db-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
     }
 
     private void ensureParentDirectory(String dbPath) {
@@ -30,46 +73,322 @@ public class Database {
     }
 
     private void init() {
-        try (Connection connection = DriverManager.getConnection(jdbcUrl);
-             Statement statement = connection.createStatement()) {
-            statement.execute("CREATE TABLE IF NOT EXISTS requests ("
-                + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
-                + "user_id INTEGER,"
-                + "username TEXT,"
-                + "file_id TEXT,"
-                + "image_url TEXT,"
-                + "result_time TEXT,"
-                + "status TEXT,"
-                + "error TEXT,"
-                + "created_at TEXT DEFAULT (datetime('now'))"
-                + ")");
+        try {
+            writeConnection = DriverManager.getConnection(jdbcUrl);
+            try (Statement statement = writeConnection.createStatement()) {
+                statement.execute("PRAGMA journal_mode=WAL");
+                statement.execute("PRAGMA synchronous=NORMAL");
+                statement.execute("PRAGMA busy_timeout=5000");
+                statement.execute("CREATE TABLE IF NOT EXISTS requests ("
+                    + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "user_id INTEGER,"
+                    + "username TEXT,"
+                    + "file_id TEXT,"
+                    + "image_url TEXT,"
+                    + "result_time TEXT,"
+                    + "status TEXT,"
+                    + "error TEXT,"
+                    + "created_at TEXT DEFAULT (datetime('now'))"
+                    + ")");
+                statement.execute("CREATE TABLE IF NOT EXISTS result_cache ("
+                    + "cache_key TEXT PRIMARY KEY,"
+                    + "result_time TEXT NOT NULL,"
+                    + "raw_content TEXT,"
+                    + "created_at INTEGER NOT NULL"
+                    + ")");
+                if (!hasColumn(statement, "requests", "trace_id")) {
+                    statement.execute("ALTER TABLE requests ADD COLUMN trace_id TEXT");
+                }
+                statement.execute("CREATE TABLE IF NOT EXISTS request_spans ("
+                    + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "trace_id TEXT NOT NULL,"
+                    + "name TEXT NOT NULL,"
+                    + "started_at INTEGER NOT NULL,"
+                    + "duration_ms INTEGER NOT NULL,"
+                    + "bytes_in INTEGER,"
+                    + "bytes_out INTEGER,"
+                    + "detail TEXT"
+                    + ")");
+                statement.execute("CREATE INDEX IF NOT EXISTS idx_request_spans_trace ON request_spans (trace_id)");
+                statement.execute("CREATE INDEX IF NOT EXISTS idx_requests_trace ON requests (trace_id)");
+            }
+            writeConnection.setAutoCommit(false);
+            insertRequest = writeConnection.prepareStatement(INSERT_REQUEST_SQL);
+            insertSpan = writeConnection.prepareStatement(INSERT_SPAN_SQL);
+            upsertCache = writeConnection.prepareStatement(UPSERT_CACHE_SQL);
+
+            readConnection = DriverManager.getConnection(jdbcUrl);
+            try (Statement statement = readConnection.createStatement()) {
+                statement.execute("PRAGMA busy_timeout=5000");
+            }
+            selectCache = readConnection.prepareStatement(SELECT_CACHE_SQL);
         } catch (SQLException e) {
             System.err.println("Failed to initialize database: " + e.getMessage());
         }
     }
 
+    /**
+     * Queues the row and its trace spans; never blocks. Rows that do not fit into the queue are dropped
+     * and counted.
+     */
     public void logRequest(RequestLog log) {
         if (log == null) {
             return;
         }
-        String sql = "INSERT INTO requests (user_id, username, file_id, image_url, result_time, status, error) "
-            + "VALUES (?, ?, ?, ?, ?, ?, ?)";
-        try (Connection connection = DriverManager.getConnection(jdbcUrl);
-             PreparedStatement statement = connection.prepareStatement(sql)) {
-            if (log.userId() == null) {
-                statement.setNull(1, java.sql.Types.INTEGER);
-            } else {
-                statement.setLong(1, log.userId());
+        enqueue(new RequestWrite(log, System.currentTimeMillis(), System.nanoTime()));
+    }
+
+    public GeminiResult findCachedResult(String key, long notBeforeMillis) {
+        if (selectCache == null) {
+            return null;
+        }
+        synchronized (readConnection) {
+            try {
+                selectCache.setString(1, key);
+                selectCache.setLong(2, notBeforeMillis);
+                try (ResultSet resultSet = selectCache.executeQuery()) {
+                    if (!resultSet.next()) {
+                        return null;
+                    }
+                    return GeminiResult.ok(resultSet.getString(1), resultSet.getString(2));
+                }
+            } catch (SQLException e) {
+                System.err.println("Failed to read cached result: " + e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    public void saveCachedResult(String key, GeminiResult result, long createdAtMillis) {
+        enqueue(new CacheWrite(key, result, createdAtMillis));
+    }
+
+    /** Runs synchronously; meant for startup before traffic arrives. */
+    public void purgeCachedResults(long olderThanMillis) {
+        if (writeConnection == null) {
+            return;
+        }
+        synchronized (writeConnection) {
+            try (PreparedStatement statement = writeConnection.prepareStatement(
+                "DELETE FROM result_cache WHERE created_at < ?")) {
+                statement.setLong(1, olderThanMillis);
+                statement.executeUpdate();
+                writeConnection.commit();
+            } catch (SQLException e) {
+                rollbackQuietly();
+                System.err.println("Failed to purge cached results: " + e.getMessage());
+            }
+        }
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    public long droppedWrites() {
+        return droppedWrites.get();
+    }
+
+    public long failedWrites() {
+        return failedWrites.get();
+    }
+
+    /** Stops accepting writes, flushes everything still queued and closes the connections. */
+    public void close(long timeoutMs) {
+        running = false;
+        try {
+            writerThread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writerThread.isAlive()) {
+            System.err.println("DB writer did not flush in " + timeoutMs + " ms, queued=" + queue.size());
+            return;
+        }
+        if (traceFile != null) {
+            traceFile.close();
+        }
+        closeQuietly(insertRequest);
+        closeQuietly(insertSpan);
+        closeQuietly(upsertCache);
+        closeQuietly(writeConnection);
+        closeQuietly(selectCache);
+        closeQuietly(readConnection);
+    }
+
+    private void enqueue(PendingWrite write) {
+        if (!running || !queue.offer(write)) {
+            long dropped = droppedWrites.incrementAndGet();
+            if (dropped == 1 || dropped % 100 == 0) {
+                System.err.println("DB write queue full, dropped writes=" + dropped);
+            }
+        }
+    }
+
+    private void runWriter() {
+        List<PendingWrite> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("DB writer error: " + e);
+            } finally {
+                batch.clear();
             }
-            statement.setString(2, log.username());
-            statement.setString(3, log.fileId());
-            statement.setString(4, log.imageUrl());
-            statement.setString(5, log.resultTime());
-            statement.setString(6, log.status());
-            statement.setString(7, log.errorMessage());
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            System.err.println("Failed to log request: " + e.getMessage());
         }
     }
+
+    private void writeBatch(List<PendingWrite> batch) {
+        if (writeConnection == null) {
+            failedWrites.addAndGet(batch.size());
+            return;
+        }
+        List<RequestWrite> requests = new ArrayList<>();
+        List<List<TraceSpan>> requestSpans = new ArrayList<>();
+        boolean committed = false;
+        synchronized (writeConnection) {
+            try {
+                boolean hasRequests = false;
+                boolean hasSpans = false;
+                boolean hasCache = false;
+                for (PendingWrite write : batch) {
+                    if (write instanceof RequestWrite request) {
+                        bindRequest(request.log());
+                        insertRequest.addBatch();
+                        hasRequests = true;
+                        List<TraceSpan> spans = spansWithDbWrite(request);
+                        for (TraceSpan span : spans) {
+                            bindSpan(span);
+                            insertSpan.addBatch();
+                            hasSpans = true;
+                        }
+                        requests.add(request);
+                        requestSpans.add(spans);
+                    } else if (write instanceof CacheWrite cache) {
+                        upsertCache.setString(1, cache.key());
+                        upsertCache.setString(2, cache.result().time());
+                        upsertCache.setString(3, cache.result().rawContent());
+                        upsertCache.setLong(4, cache.createdAtMillis());
+                        upsertCache.addBatch();
+                        hasCache = true;
+                    }
+                }
+                if (hasRequests) {
+                    insertRequest.executeBatch();
+                }
+                if (hasSpans) {
+                    insertSpan.executeBatch();
+                }
+                if (hasCache) {
+                    upsertCache.executeBatch();
+                }
+                writeConnection.commit();
+                committed = true;
+            } catch (SQLException e) {
+                rollbackQuietly();
+                failedWrites.addAndGet(batch.size());
+                System.err.println("Failed to write " + batch.size() + " rows: " + e.getMessage());
+            }
+        }
+        if (committed && traceFile != null && !requests.isEmpty()) {
+            for (int i = 0; i < requests.size(); i++) {
+                traceFile.append(requests.get(i).log(), requestSpans.get(i));
+            }
+            traceFile.flush();
+        }
+    }
+
+    /** Adds the time the row spent in the queue up to this batch as a {@code db_write} span. */
+    private List<TraceSpan> spansWithDbWrite(RequestWrite request) {
+        RequestLog log = request.log();
+        if (log.traceId() == null) {
+            return List.of();
+        }
+        List<TraceSpan> spans = new ArrayList<>(log.spans() == null ? List.of() : log.spans());
+        long durationMs = (System.nanoTime() - request.enqueuedAtNanos()) / 1_000_000;
+        spans.add(new TraceSpan(log.traceId(), "db_write", request.enqueuedAtMillis(), durationMs, -1, -1, null));
+        return spans;
+    }
+
+    private void bindRequest(RequestLog log) throws SQLException {
+        if (log.userId() == null) {
+            insertRequest.setNull(1, java.sql.Types.INTEGER);
+        } else {
+            insertRequest.setLong(1, log.userId());
+        }
+        insertRequest.setString(2, log.username());
+        insertRequest.setString(3, log.fileId());
+        insertRequest.setString(4, log.imageUrl());
+        insertRequest.setString(5, log.resultTime());
+        insertRequest.setString(6, log.status());
+        insertRequest.setString(7, log.errorMessage());
+        insertRequest.setString(8, log.traceId());
+    }
+
+    private void bindSpan(TraceSpan span) throws SQLException {
+        insertSpan.setString(1, span.traceId());
+        insertSpan.setString(2, span.name());
+        insertSpan.setLong(3, span.startedAtMillis());
+        insertSpan.setLong(4, span.durationMs());
+        setNullableLong(insertSpan, 5, span.bytesIn());
+        setNullableLong(insertSpan, 6, span.bytesOut());
+        insertSpan.setString(7, span.detail());
+    }
+
+    private static void setNullableLong(PreparedStatement statement, int index, long value) throws SQLException {
+        if (value < 0) {
+            statement.setNull(index, java.sql.Types.INTEGER);
+        } else {
+            statement.setLong(index, value);
+        }
+    }
+
+    private static boolean hasColumn(Statement statement, String table, String column) throws SQLException {
+        try (ResultSet columns = statement.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (columns.next()) {
+                if (column.equalsIgnoreCase(columns.getString("name"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void rollbackQuietly() {
+        try {
+            insertRequest.clearBatch();
+            insertSpan.clearBatch();
+            upsertCache.clearBatch();
+            writeConnection.rollback();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (Exception ignored) {
+        }
+    }
+
+    private sealed interface PendingWrite permits RequestWrite, CacheWrite {
+    }
+
+    private record RequestWrite(RequestLog log, long enqueuedAtMillis, long enqueuedAtNanos) implements PendingWrite {
+    }
+
+    private record CacheWrite(String key, GeminiResult result, long createdAtMillis) implements PendingWrite {
+    }
 }
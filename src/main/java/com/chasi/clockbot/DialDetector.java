@@ -0,0 +1,182 @@
+package com.chasi.clockbot;
+
+/**
+ * Finds the most prominent circle in a photo, which on an analog clock is the dial or its bezel. Edge
+ * pixels vote for centers along their gradient direction, and the radius is the one whose ring of
+ * edges covers most of the circumference around the winning center.
+ */
+public final class DialDetector {
+    /**
+     * @param coverage fraction of the circumference, 0..1, on which an edge supports the circle
+     */
+    public record Dial(double centerX, double centerY, double radius, double coverage) {
+    }
+
+    private static final double MIN_RADIUS = 0.12;
+    private static final double MAX_RADIUS = 0.55;
+    private static final int MIN_EDGE_MAGNITUDE = 80;
+    private static final double EDGE_FRACTION = 0.12;
+    private static final int ANGLE_BINS = 90;
+    private static final double MIN_COVERAGE = 0.5;
+
+    private DialDetector() {
+    }
+
+    /** @return the dial, or null if no circle is supported by at least half of its circumference */
+    public static Dial find(GrayImage image) {
+        int width = image.width();
+        int height = image.height();
+        int shortSide = Math.min(width, height);
+        int minRadius = Math.max(8, (int) (shortSide * MIN_RADIUS));
+        int maxRadius = (int) (shortSide * MAX_RADIUS);
+        if (maxRadius <= minRadius) {
+            return null;
+        }
+
+        int[] gx = new int[width * height];
+        int[] gy = new int[width * height];
+        int[] histogram = new int[2048];
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                int i = y * width + x;
+                int dx = image.get(x + 1, y - 1) + 2 * image.get(x + 1, y) + image.get(x + 1, y + 1)
+                    - image.get(x - 1, y - 1) - 2 * image.get(x - 1, y) - image.get(x - 1, y + 1);
+                int dy = image.get(x - 1, y + 1) + 2 * image.get(x, y + 1) + image.get(x + 1, y + 1)
+                    - image.get(x - 1, y - 1) - 2 * image.get(x, y - 1) - image.get(x + 1, y - 1);
+                gx[i] = dx;
+                gy[i] = dy;
+                histogram[Math.min(histogram.length - 1, (int) Math.hypot(dx, dy))]++;
+            }
+        }
+        int threshold = edgeThreshold(histogram, (int) (width * height * EDGE_FRACTION));
+
+        // Votes go to a half-resolution grid, which absorbs small errors in the gradient direction.
+        int gridWidth = (width + 1) / 2;
+        int gridHeight = (height + 1) / 2;
+        int[] votes = new int[gridWidth * gridHeight];
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                int i = y * width + x;
+                double magnitude = Math.hypot(gx[i], gy[i]);
+                if (magnitude < threshold) {
+                    continue;
+                }
+                double ux = gx[i] / magnitude;
+                double uy = gy[i] / magnitude;
+                for (int r = minRadius; r <= maxRadius; r += 2) {
+                    vote(votes, gridWidth, gridHeight, x + ux * r, y + uy * r);
+                    vote(votes, gridWidth, gridHeight, x - ux * r, y - uy * r);
+                }
+            }
+        }
+
+        int bestCell = -1;
+        int bestVotes = 0;
+        for (int y = 1; y < gridHeight - 1; y++) {
+            for (int x = 1; x < gridWidth - 1; x++) {
+                int sum = 0;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        sum += votes[(y + dy) * gridWidth + x + dx];
+                    }
+                }
+                if (sum > bestVotes) {
+                    bestVotes = sum;
+                    bestCell = y * gridWidth + x;
+                }
+            }
+        }
+        if (bestCell < 0) {
+            return null;
+        }
+        double centerX = refine(votes, gridWidth, bestCell, true) * 2 + 0.5;
+        double centerY = refine(votes, gridWidth, bestCell, false) * 2 + 0.5;
+        return radius(gx, gy, width, height, threshold, centerX, centerY, minRadius, maxRadius);
+    }
+
+    /** Picks the radius whose edges, pointing at the center, occupy the most angular bins. */
+    private static Dial radius(int[] gx, int[] gy, int width, int height, int threshold,
+                               double centerX, double centerY, int minRadius, int maxRadius) {
+        boolean[][] bins = new boolean[maxRadius + 2][ANGLE_BINS];
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                int i = y * width + x;
+                double magnitude = Math.hypot(gx[i], gy[i]);
+                if (magnitude < threshold) {
+                    continue;
+                }
+                double rx = x - centerX;
+                double ry = y - centerY;
+                double distance = Math.hypot(rx, ry);
+                int r = (int) Math.round(distance);
+                if (r < minRadius - 1 || r > maxRadius + 1) {
+                    continue;
+                }
+                double alignment = Math.abs(rx * gx[i] + ry * gy[i]) / (distance * magnitude);
+                if (alignment < 0.9) {
+                    continue;
+                }
+                double angle = Math.atan2(ry, rx) + Math.PI;
+                int bin = Math.min(ANGLE_BINS - 1, (int) (angle / (2 * Math.PI) * ANGLE_BINS));
+                bins[r][bin] = true;
+            }
+        }
+
+        int bestRadius = 0;
+        int bestCount = 0;
+        for (int r = minRadius; r <= maxRadius; r++) {
+            int count = 0;
+            for (int bin = 0; bin < ANGLE_BINS; bin++) {
+                if (bins[r - 1][bin] || bins[r][bin] || bins[r + 1][bin]) {
+                    count++;
+                }
+            }
+            // A dial usually shows several rings; ties go to the outer one so the hands fit inside.
+            if (count >= bestCount) {
+                bestCount = count;
+                bestRadius = r;
+            }
+        }
+        double coverage = (double) bestCount / ANGLE_BINS;
+        if (coverage < MIN_COVERAGE) {
+            return null;
+        }
+        return new Dial(centerX, centerY, bestRadius, coverage);
+    }
+
+    /** @return the magnitude above which about {@code count} pixels lie, at least {@link #MIN_EDGE_MAGNITUDE} */
+    private static int edgeThreshold(int[] histogram, int count) {
+        int seen = 0;
+        for (int magnitude = histogram.length - 1; magnitude > MIN_EDGE_MAGNITUDE; magnitude--) {
+            seen += histogram[magnitude];
+            if (seen >= count) {
+                return magnitude;
+            }
+        }
+        return MIN_EDGE_MAGNITUDE;
+    }
+
+    private static void vote(int[] votes, int gridWidth, int gridHeight, double x, double y) {
+        int gridX = (int) (x / 2);
+        int gridY = (int) (y / 2);
+        if (x >= 0 && y >= 0 && gridX < gridWidth && gridY < gridHeight) {
+            votes[gridY * gridWidth + gridX]++;
+        }
+    }
+
+    /** Vote-weighted mean position of the 3x3 neighbourhood, along x or y. */
+    private static double refine(int[] votes, int gridWidth, int cell, boolean alongX) {
+        int cellX = cell % gridWidth;
+        int cellY = cell / gridWidth;
+        double weighted = 0;
+        double total = 0;
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                int count = votes[(cellY + dy) * gridWidth + cellX + dx];
+                weighted += count * (alongX ? cellX + dx : cellY + dy);
+                total += count;
+            }
+        }
+        return weighted / total;
+    }
+}
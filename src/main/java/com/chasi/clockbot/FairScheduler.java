@@ -0,0 +1,217 @@
+package com.chasi.clockbot;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Shares the image pipeline between users. Every user has a FIFO queue and a token bucket; queued
+ * users are served by deficit round-robin, where a job costs one unit per image, and each user runs
+ * at most one job at a time so their replies keep their order. A user who sends faster than the
+ * bucket refills, or who already has a full queue, is refused at admission. A job costlier than the
+ * burst, such as a large album, is admitted on a full bucket and leaves it in debt. A job of cost 0,
+ * such as a cached answer, takes its place in the user's queue but is not rate limited.
+ */
+public class FairScheduler {
+    public enum Rejection { RATE_LIMITED, QUEUE_FULL }
+
+    /** {@code rejection} is null if the job was queued; {@code position} counts jobs served before it. */
+    public record Admission(Rejection rejection, int position, boolean firstRejection) {
+        public boolean accepted() {
+            return rejection == null;
+        }
+    }
+
+    private static final int QUANTUM = 1;
+    private static final int MAX_IDLE_USERS = 10_000;
+
+    private static final Metrics.Counter ADMISSIONS = Metrics.counter("clockbot_scheduler_admissions_total",
+        "Image jobs offered to the fair scheduler by result", "result");
+    private static final Metrics.Histogram QUEUE_WAIT = Metrics.histogram("clockbot_scheduler_wait_seconds",
+        "Time image jobs spent queued in the fair scheduler", Metrics.LATENCY_BUCKETS_SECONDS);
+
+    private final int slots;
+    private final double tokensPerMilli;
+    private final int burst;
+    private final int maxQueuedPerUser;
+    private final Executor executor;
+    private final Map<Long, UserQueue> users = new HashMap<>();
+    private final ArrayDeque<UserQueue> ready = new ArrayDeque<>();
+    private int running;
+    private int queued;
+
+    public FairScheduler(int slots, int ratePerMinute, int burst, int maxQueuedPerUser, Executor executor) {
+        this.slots = slots;
+        this.tokensPerMilli = ratePerMinute / 60_000.0;
+        this.burst = burst;
+        this.maxQueuedPerUser = maxQueuedPerUser;
+        this.executor = executor;
+        Metrics.gauge("clockbot_scheduler_queued", "Image jobs waiting in the fair scheduler").register(this::queued);
+        Metrics.gauge("clockbot_scheduler_running", "Image jobs holding a fair scheduler slot").register(this::running);
+    }
+
+    /**
+     * Queues {@code job} for {@code userId}. The job is started on the executor once it is the user's turn
+     * and holds its slot until the returned stage completes.
+     */
+    public Admission submit(long userId, int cost, Supplier<? extends CompletionStage<?>> job) {
+        Admission admission;
+        synchronized (this) {
+            UserQueue user = users.computeIfAbsent(userId, UserQueue::new);
+            long now = System.currentTimeMillis();
+            user.refill(now);
+            if (user.jobs.size() >= maxQueuedPerUser) {
+                admission = user.reject(Rejection.QUEUE_FULL);
+            } else if (cost > 0 && user.tokens < Math.min(cost, burst)) {
+                admission = user.reject(Rejection.RATE_LIMITED);
+            } else {
+                user.tokens -= cost;
+                user.rejecting = false;
+                int position = positionOf(user);
+                user.jobs.add(new Job(cost, job, now));
+                queued++;
+                if (user.jobs.size() == 1 && !user.running) {
+                    ready.add(user);
+                }
+                admission = new Admission(null, position, false);
+            }
+            if (users.size() > MAX_IDLE_USERS) {
+                pruneIdleUsers(now);
+            }
+        }
+        ADMISSIONS.inc(admission.accepted() ? "accepted" : admission.rejection().name().toLowerCase());
+        dispatch();
+        return admission;
+    }
+
+    public synchronized int queued() {
+        return queued;
+    }
+
+    public synchronized int running() {
+        return running;
+    }
+
+    /** Waits until nothing is queued or running, e.g. on shutdown after new updates stopped. */
+    public void awaitIdle(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        try {
+            synchronized (this) {
+                while ((queued > 0 || running > 0) && System.currentTimeMillis() < deadline) {
+                    wait(Math.max(1, deadline - System.currentTimeMillis()));
+                }
+                if (queued > 0 || running > 0) {
+                    System.err.println("[FairScheduler] " + queued + " queued and " + running
+                        + " running jobs left after " + timeoutMs + " ms");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Jobs served before a new job of {@code user}: under round-robin every other waiting user gets up
+     * to as many turns as this user has jobs ahead, plus one. Free slots only shorten the wait for other
+     * users' jobs, since the user's own jobs run one at a time.
+     */
+    private int positionOf(UserQueue user) {
+        int own = user.jobs.size() + (user.running ? 1 : 0);
+        int rounds = user.jobs.size() + 1;
+        int others = 0;
+        for (UserQueue other : users.values()) {
+            if (other != user) {
+                others += Math.min(other.jobs.size(), rounds);
+            }
+        }
+        return own + Math.max(0, others - (slots - running));
+    }
+
+    private void dispatch() {
+        while (true) {
+            Job job;
+            UserQueue owner;
+            synchronized (this) {
+                if (running >= slots || ready.isEmpty()) {
+                    return;
+                }
+                owner = ready.poll();
+                owner.deficit += QUANTUM;
+                if (owner.jobs.peek().cost > owner.deficit) {
+                    ready.add(owner);
+                    continue;
+                }
+                job = owner.jobs.poll();
+                owner.deficit = owner.jobs.isEmpty() ? 0 : owner.deficit - job.cost;
+                owner.running = true;
+                running++;
+                queued--;
+            }
+            QUEUE_WAIT.observe((System.currentTimeMillis() - job.enqueuedAtMillis) / 1000.0);
+            UserQueue user = owner;
+            CompletableFuture.supplyAsync(job.task, executor)
+                .thenCompose(stage -> stage.thenApply(ignored -> null))
+                .whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        System.err.println("[FairScheduler] Job failed: " + error);
+                    }
+                    finished(user);
+                });
+        }
+    }
+
+    private void finished(UserQueue user) {
+        synchronized (this) {
+            running--;
+            user.running = false;
+            if (!user.jobs.isEmpty()) {
+                ready.add(user);
+            }
+            notifyAll();
+        }
+        dispatch();
+    }
+
+    private void pruneIdleUsers(long now) {
+        Iterator<UserQueue> iterator = users.values().iterator();
+        while (iterator.hasNext()) {
+            UserQueue user = iterator.next();
+            user.refill(now);
+            if (!user.running && user.jobs.isEmpty() && user.tokens >= burst) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private record Job(int cost, Supplier<? extends CompletionStage<?>> task, long enqueuedAtMillis) {
+    }
+
+    private final class UserQueue {
+        private final ArrayDeque<Job> jobs = new ArrayDeque<>();
+        private double tokens = burst;
+        private long refilledAtMillis = System.currentTimeMillis();
+        private int deficit;
+        private boolean running;
+        private boolean rejecting;
+
+        private UserQueue(Long ignored) {
+        }
+
+        void refill(long now) {
+            tokens = Math.min(burst, tokens + (now - refilledAtMillis) * tokensPerMilli);
+            refilledAtMillis = now;
+        }
+
+        /** Only the first refusal of a streak is reported, so a flood gets one reply instead of one each. */
+        Admission reject(Rejection rejection) {
+            boolean first = !rejecting;
+            rejecting = true;
+            return new Admission(rejection, 0, first);
+        }
+    }
+}
@@ -11,19 +11,55 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.net.http.HttpTimeoutException;
 import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongFunction;
 
 public class GeminiClient {
     private static final String ENDPOINT = "/gemini-3-pro/v1/chat/completions";
     private static final int MAX_UPLOAD_BYTES = 9 * 1024 * 1024;
     private static final int REQUEST_TIMEOUT_SECONDS = 600;
     private static final int MAX_ATTEMPTS = 5;
+    private static final long RETRY_BASE_DELAY_MS = 10_000L;
+    private static final long RETRY_MAX_DELAY_MS = 120_000L;
+    private static final long MIN_HEDGE_DELAY_MS = 1_000L;
+
+    private static final Metrics.Counter ATTEMPTS = Metrics.counter("clockbot_gemini_attempts_total",
+        "Gemini chat-completions attempts by outcome", "outcome");
+    private static final Metrics.Counter RETRIES = Metrics.counter("clockbot_gemini_retries_total",
+        "Gemini retries by cause of the failed attempt", "cause");
+    private static final Metrics.Counter RETRIES_DENIED = Metrics.counter("clockbot_gemini_retries_denied_total",
+        "Retries skipped because the retry budget was exhausted");
+    private static final Metrics.Counter HEDGES = Metrics.counter("clockbot_gemini_hedges_total",
+        "Hedged chat-completions requests: fired, won by the hedge, denied by the hedge budget or skipped for want of a limiter slot", "outcome");
+    private static final Metrics.Counter UPLOADS = Metrics.counter("clockbot_image_upload_total",
+        "How the image reached the model: inline, uploaded to Kie storage or Telegram URL fallback", "outcome");
+    private static final Metrics.Histogram BATCH_SIZE = Metrics.histogram("clockbot_gemini_batch_images",
+        "Images per batched chat-completions request", new double[] {1, 2, 3, 4, 6, 8, 12, 16});
+    private static final Metrics.Counter BATCH_FALLBACKS = Metrics.counter("clockbot_gemini_batch_fallbacks_total",
+        "Batched images resent as single requests, by cause", "cause");
 
     private final HttpClient httpClient;
     private final ObjectMapper mapper;
     private final Config config;
     private final KieFileUploader fileUploader;
+    private final RetryBudget retryBudget;
+    private final ImageDeliveryPolicy delivery;
+    private final RetryBudget hedgeBudget;
+    private final LatencyTracker chatLatency;
+    private final ConcurrencyLimiter chatLimiter;
+    private final CircuitBreaker chatBreaker;
+    private final MicroBatcher<BatchItem> batcher;
 
     public GeminiClient(Config config) {
         this.config = config;
@@ -32,92 +68,386 @@ public class GeminiClient {
             .build();
         this.mapper = new ObjectMapper();
         this.fileUploader = new KieFileUploader(config);
+        this.retryBudget = new RetryBudget(config.retryBudgetPercent() / 100.0);
+        this.delivery = new ImageDeliveryPolicy(config.inlineImageMaxBytes());
+        this.hedgeBudget = new RetryBudget(config.hedgeBudgetPercent() / 100.0);
+        this.chatLatency = new LatencyTracker("chat_completions");
+        this.chatLimiter = new ConcurrencyLimiter("chat_completions", config.upstreamMaxConcurrency());
+        this.chatBreaker = new CircuitBreaker("chat_completions");
+        this.batcher = config.geminiBatchWindowMs() > 0 && config.geminiBatchMaxImages() > 1
+            ? new MicroBatcher<>(config.geminiBatchWindowMs(), config.geminiBatchMaxImages(), this::sendBatch)
+            : null;
+    }
+
+    /**
+     * Runs the request and its retries without holding a thread: every retry is scheduled on the
+     * shared delayed executor, and the upload and HTTP calls are asynchronous. With batching enabled the image
+     * first waits for other images to share one request.
+     */
+    public CompletableFuture<GeminiResult> extractTime(String imageUrl, byte[] imageBytes, String fileName,
+                                                       Trace trace) {
+        long preparedAt = System.currentTimeMillis();
+        return prepareImage(imageUrl, imageBytes, fileName, trace).thenCompose(image -> {
+            if (batcher != null) {
+                BatchItem item = new BatchItem(image, imageBytes, fileName, preparedAt, trace,
+                    new CompletableFuture<>());
+                batcher.add(item);
+                return item.result();
+            }
+            return extractSingle(image, imageBytes, fileName, preparedAt, trace);
+        });
     }
 
-    public GeminiResult extractTime(String imageUrl, byte[] imageBytes, String fileName) {
-        String effectiveUrl = prepareImageUrl(imageUrl, imageBytes, fileName);
-        String payload;
+    private CompletableFuture<GeminiResult> extractSingle(PreparedImage image, byte[] imageBytes, String fileName,
+                                                          long preparedAt, Trace trace) {
+        HttpRequest.BodyPublisher body;
         try {
-            payload = buildPayload(effectiveUrl);
-        } catch (JsonProcessingException e) {
-            return GeminiResult.error("Payload build failed: " + e.getMessage());
+            body = image.mode() == ImageDeliveryPolicy.Mode.INLINE
+                ? DataUrlBodyPublisher.of(buildPayload(DataUrlBodyPublisher.PLACEHOLDER),
+                    MimeTypeResolver.fromFileName(fileName), imageBytes)
+                : HttpRequest.BodyPublishers.ofByteArray(buildPayload(image.url()));
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(GeminiResult.error("Payload build failed: " + e.getMessage()));
         }
 
-        GeminiResult result = null;
-        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
-            result = sendRequest(payload, attempt);
-            if (result != null && "ok".equals(result.status())) {
-                return result;
+        retryBudget.recordRequest();
+        ChatRequest request = new ChatRequest(body, image.mode(), System.currentTimeMillis() - preparedAt);
+        return attempt(request, 1, 0L, trace);
+    }
+
+    /**
+     * Sends the images of a batch as one request whose answer lists a time per image index. A failed call
+     * is retried as a whole, under the same budget and delays as a single request, and once the retries are
+     * spent every image gets the same error. Only images the answer does not cover, or all of them if the
+     * answer cannot be parsed, are sent again one by one.
+     */
+    private void sendBatch(List<BatchItem> items) {
+        if (items.size() == 1) {
+            BatchItem item = items.get(0);
+            extractSingle(item.image(), item.imageBytes(), item.fileName(), item.preparedAt(), item.trace())
+                .whenComplete(item::settle);
+            return;
+        }
+        BATCH_SIZE.observe(items.size());
+        HttpRequest.BodyPublisher body;
+        try {
+            body = buildBatchBody(items);
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            fallBackToSingles(items, "payload");
+            return;
+        }
+
+        retryBudget.recordRequest();
+        batchAttempt(items, body, 1, 0L).whenComplete((ignored, error) -> {
+            if (error != null) {
+                for (BatchItem item : items) {
+                    item.settle(null, error);
+                }
             }
-            if (attempt < MAX_ATTEMPTS && isRetryable(result)) {
-                log("Retrying after error (attempt " + attempt + "): " + result.errorMessage());
-                sleepBeforeRetry(attempt);
-                continue;
+        });
+    }
+
+    /**
+     * The call itself is traced on the first image's trace; every image also gets a span of its own that
+     * covers the same attempt.
+     */
+    private CompletableFuture<Void> batchAttempt(List<BatchItem> items, HttpRequest.BodyPublisher body,
+                                                 int attempt, long previousDelayMs) {
+        List<Trace.Span> spans = new ArrayList<>(items.size());
+        for (BatchItem item : items) {
+            spans.add(item.trace().span("gemini_batch_" + attempt).bytesOut(body.contentLength()));
+        }
+        Trace.Span call = items.get(0).trace().span("gemini_batch_call_" + attempt).bytesOut(body.contentLength());
+        return guardedSend(body, call, response -> parseBatchResponse(response, items.size()))
+            .thenApply(results -> {
+                for (Trace.Span span : spans) {
+                    span.detail("ok, " + items.size() + " images").end();
+                }
+                List<BatchItem> missing = new ArrayList<>();
+                for (int i = 0; i < items.size(); i++) {
+                    if (results[i] != null) {
+                        items.get(i).result().complete(results[i]);
+                    } else {
+                        missing.add(items.get(i));
+                    }
+                }
+                fallBackToSingles(missing, "missing_index");
+                return CompletableFuture.<Void>completedFuture(null);
+            })
+            .exceptionally(error -> {
+                UpstreamException failure = UpstreamException.from(error);
+                call.detail(failure.kind()).end();
+                for (Trace.Span span : spans) {
+                    span.detail(failure.kind() + ", " + items.size() + " images").end();
+                }
+                ATTEMPTS.inc(failure.kind());
+                if (failure instanceof UpstreamException.Malformed) {
+                    log("Batch of " + items.size() + " could not be parsed, sending singly: " + failure.getMessage());
+                    fallBackToSingles(items, failure.kind());
+                    return CompletableFuture.<Void>completedFuture(null);
+                }
+                return retryOrFail(attempt, previousDelayMs, failure,
+                    result -> {
+                        for (BatchItem item : items) {
+                            item.result().complete(result);
+                        }
+                        return null;
+                    },
+                    delayMs -> batchAttempt(items, body, attempt + 1, delayMs));
+            })
+            .thenCompose(Function.identity());
+    }
+
+    private void fallBackToSingles(List<BatchItem> items, String cause) {
+        for (BatchItem item : items) {
+            BATCH_FALLBACKS.inc(cause);
+            extractSingle(item.image(), item.imageBytes(), item.fileName(), System.currentTimeMillis(), item.trace())
+                .whenComplete(item::settle);
+        }
+    }
+
+    private HttpRequest.BodyPublisher buildBatchBody(List<BatchItem> items) throws JsonProcessingException {
+        List<DataUrlBodyPublisher.Image> inline = new ArrayList<>();
+        List<String> urls = new ArrayList<>(items.size());
+        for (BatchItem item : items) {
+            if (item.image().mode() == ImageDeliveryPolicy.Mode.INLINE) {
+                inline.add(new DataUrlBodyPublisher.Image(MimeTypeResolver.fromFileName(item.fileName()),
+                    item.imageBytes()));
+                urls.add(DataUrlBodyPublisher.PLACEHOLDER);
+            } else {
+                urls.add(item.image().url());
             }
-            return result;
+        }
+        byte[] json = buildBatchPayload(urls);
+        return inline.isEmpty()
+            ? HttpRequest.BodyPublishers.ofByteArray(json)
+            : DataUrlBodyPublisher.of(json, inline);
+    }
+
+    private CompletableFuture<GeminiResult> attempt(ChatRequest request, int attempt, long previousDelayMs,
+                                                    Trace trace) {
+        Trace.Span span = trace.span("gemini_attempt_" + attempt).bytesOut(request.body().contentLength());
+        long startedAt = System.currentTimeMillis();
+        return guardedSend(request.body(), span, this::parseResponse)
+            .thenApply(result -> {
+                if (attempt == 1 && request.mode() != null) {
+                    delivery.recordLatency(request.mode(),
+                        request.prepareMs() + System.currentTimeMillis() - startedAt);
+                }
+                return CompletableFuture.completedFuture(result);
+            })
+            .exceptionally(error -> {
+                UpstreamException failure = UpstreamException.from(error);
+                span.detail(failure.kind()).end();
+                ATTEMPTS.inc(failure.kind());
+                if (attempt == 1 && request.mode() == ImageDeliveryPolicy.Mode.INLINE && !failure.retryable()) {
+                    delivery.recordFailure(ImageDeliveryPolicy.Mode.INLINE);
+                }
+                return retryOrFail(attempt, previousDelayMs, failure, Function.identity(),
+                    delayMs -> attempt(request, attempt + 1, delayMs, trace));
+            })
+            .thenCompose(Function.identity());
+    }
+
+    /**
+     * @param giveUp turns the final result into the caller's value once no retry is made
+     * @param retry  makes the next attempt, given the delay it was scheduled after
+     */
+    private <T> CompletableFuture<T> retryOrFail(int attempt, long previousDelayMs, UpstreamException failure,
+                                                 Function<GeminiResult, T> giveUp,
+                                                 LongFunction<CompletableFuture<T>> retry) {
+        if (failure instanceof UpstreamException.Unavailable) {
+            return CompletableFuture.completedFuture(giveUp.apply(GeminiResult.unavailable(failure.getMessage())));
+        }
+        if (attempt >= MAX_ATTEMPTS || !failure.retryable()) {
+            return CompletableFuture.completedFuture(giveUp.apply(GeminiResult.error(failure.getMessage())));
+        }
+        if (!retryBudget.tryAcquire()) {
+            RETRIES_DENIED.inc();
+            log("Retry budget exhausted, giving up after attempt " + attempt + ": " + failure.getMessage());
+            return CompletableFuture.completedFuture(giveUp.apply(GeminiResult.error(failure.getMessage())));
         }
 
-        return result == null ? GeminiResult.error("Request failed") : result;
+        RETRIES.inc(failure.kind());
+        long delayMs = nextRetryDelayMs(previousDelayMs, failure.retryAfter());
+        log("Retrying in " + delayMs + " ms after " + failure.kind() + " (attempt " + attempt + "): "
+            + failure.getMessage());
+        Executor delayed = CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS);
+        return CompletableFuture.supplyAsync(() -> retry.apply(delayMs), delayed)
+            .thenCompose(Function.identity());
     }
 
-    private GeminiResult sendRequest(String payload, int attempt) {
+    /**
+     * Fails fast while the circuit is open, otherwise waits for a limiter slot. The outcome of the call
+     * feeds both: overload signals shrink the limit, unhealthy failures count against the circuit.
+     */
+    private <T> CompletableFuture<T> guardedSend(HttpRequest.BodyPublisher payload, Trace.Span span,
+                                                 Function<String, T> parser) {
+        if (!chatBreaker.allowRequest()) {
+            return CompletableFuture.failedFuture(
+                new UpstreamException.Unavailable("Chat completions circuit is open"));
+        }
+        return chatLimiter.acquire()
+            .whenComplete((permit, error) -> {
+                if (error != null) {
+                    chatBreaker.onSkipped();
+                }
+            })
+            .thenCompose(permit -> {
+                long startedAt = System.currentTimeMillis();
+                return sendRequest(payload, span, parser).whenComplete((result, error) -> {
+                    long latencyMs = System.currentTimeMillis() - startedAt;
+                    if (error == null) {
+                        chatBreaker.onSuccess();
+                        permit.release(ConcurrencyLimiter.Outcome.SUCCESS, latencyMs);
+                        return;
+                    }
+                    UpstreamException failure = UpstreamException.from(error);
+                    if (failure.unhealthy()) {
+                        chatBreaker.onFailure();
+                    } else {
+                        chatBreaker.onSuccess();
+                    }
+                    permit.release(failure.overload()
+                        ? ConcurrencyLimiter.Outcome.OVERLOAD
+                        : ConcurrencyLimiter.Outcome.IGNORE, latencyMs);
+                });
+            });
+    }
+
+    private <T> CompletableFuture<T> sendRequest(HttpRequest.BodyPublisher payload, Trace.Span span,
+                                                 Function<String, T> parser) {
         HttpRequest request = HttpRequest.newBuilder()
             .uri(URI.create(config.kieApiBaseUrl() + ENDPOINT))
             .timeout(Duration.ofSeconds(REQUEST_TIMEOUT_SECONDS))
             .header("Authorization", "Bearer " + config.kieApiKey())
             .header("Content-Type", "application/json")
-            .POST(HttpRequest.BodyPublishers.ofString(payload))
+            .POST(payload)
             .build();
 
-        HttpResponse<String> response;
         long startedAt = System.currentTimeMillis();
-        try {
-            response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        } catch (HttpTimeoutException e) {
-            return GeminiResult.error("Request timed out: " + e.getMessage());
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            return GeminiResult.error("Request interrupted: " + e.getMessage());
-        } catch (IOException e) {
-            return GeminiResult.error("Request failed: " + e.getMessage());
-        }
-        long durationMs = System.currentTimeMillis() - startedAt;
+        return exchange(request)
+            .thenApply(response -> {
+                long durationMs = System.currentTimeMillis() - startedAt;
+                span.bytesIn(response.body() == null ? 0 : response.body().length());
+                if (response.statusCode() < 200 || response.statusCode() >= 300) {
+                    log("Gemini API error status=" + response.statusCode() + " durationMs=" + durationMs
+                        + " body=" + truncate(response.body(), 1000));
+                    throw new UpstreamException.Status(response.statusCode(), parseRetryAfter(response));
+                }
 
-        if (response.statusCode() < 200 || response.statusCode() >= 300) {
-            log("Gemini API error status=" + response.statusCode() + " durationMs=" + durationMs
-                + " body=" + truncate(response.body(), 1000));
-            return GeminiResult.error("Bad response status: " + response.statusCode());
-        }
+                log("Gemini API response status=" + response.statusCode() + " durationMs=" + durationMs
+                    + " body=" + truncate(response.body(), 2000));
+                T result = parser.apply(response.body());
+                span.detail("ok").end();
+                ATTEMPTS.inc("ok");
+                return result;
+            });
+    }
 
-        log("Gemini API response status=" + response.statusCode() + " durationMs=" + durationMs
-            + " body=" + truncate(response.body(), 2000));
-        return parseResponse(response.body());
+    /**
+     * Sends the request and, once it has been running longer than the configured percentile of recent
+     * chat latencies, an identical hedge if the hedge budget allows. The first response wins and the
+     * other exchange is cancelled.
+     */
+    private CompletableFuture<HttpResponse<String>> exchange(HttpRequest request) {
+        HedgedExchange exchange = new HedgedExchange(request);
+        exchange.launch(null);
+        if (config.hedgePercentile() > 0) {
+            hedgeBudget.recordRequest();
+            long hedgeDelayMs = chatLatency.percentile(config.hedgePercentile());
+            if (hedgeDelayMs >= 0) {
+                CompletableFuture.delayedExecutor(Math.max(MIN_HEDGE_DELAY_MS, hedgeDelayMs), TimeUnit.MILLISECONDS)
+                    .execute(exchange::hedge);
+            }
+        }
+        return exchange.result;
     }
 
-    private String prepareImageUrl(String fallbackUrl, byte[] imageBytes, String fileName) {
+    /**
+     * Small images go inline when the delivery policy says that is faster; otherwise the image is uploaded
+     * to Kie storage, falling back to the Telegram URL when there are no bytes or the upload fails.
+     */
+    private CompletableFuture<PreparedImage> prepareImage(String fallbackUrl, byte[] imageBytes, String fileName,
+                                                          Trace trace) {
         if (imageBytes == null || imageBytes.length == 0) {
             log("Image bytes missing, using Telegram URL");
-            return fallbackUrl;
+            UPLOADS.inc("fallback_no_bytes");
+            return CompletableFuture.completedFuture(new PreparedImage(fallbackUrl, null));
         }
 
         if (imageBytes.length > MAX_UPLOAD_BYTES) {
             log("Image too large for base64 upload (" + imageBytes.length + " bytes), using Telegram URL");
-            return fallbackUrl;
+            UPLOADS.inc("fallback_too_large");
+            return CompletableFuture.completedFuture(new PreparedImage(fallbackUrl, null));
+        }
+
+        if (delivery.choose(imageBytes.length) == ImageDeliveryPolicy.Mode.INLINE) {
+            UPLOADS.inc("inline");
+            return CompletableFuture.completedFuture(new PreparedImage(null, ImageDeliveryPolicy.Mode.INLINE));
         }
 
         String mimeType = MimeTypeResolver.fromFileName(fileName);
-        UploadResult upload = fileUploader.uploadBase64(imageBytes, fileName, mimeType);
-        if (upload.success() && upload.downloadUrl() != null && !upload.downloadUrl().isBlank()) {
-            log("Uploaded image to Kie.ai storage");
-            return upload.downloadUrl();
+        Trace.Span span = trace.span("upload").bytesOut(imageBytes.length);
+        return fileUploader.uploadBase64(imageBytes, fileName, mimeType).thenApply(upload -> {
+            span.detail(upload.success() ? "ok" : upload.errorMessage()).end();
+            if (upload.success() && upload.downloadUrl() != null && !upload.downloadUrl().isBlank()) {
+                log("Uploaded image to Kie.ai storage");
+                UPLOADS.inc("uploaded");
+                return new PreparedImage(upload.downloadUrl(), ImageDeliveryPolicy.Mode.UPLOAD);
+            }
+
+            String reason = upload.errorMessage() == null ? "unknown" : upload.errorMessage();
+            log("Upload failed, using Telegram URL. reason=" + reason);
+            UPLOADS.inc("fallback_error");
+            delivery.recordFailure(ImageDeliveryPolicy.Mode.UPLOAD);
+            return new PreparedImage(fallbackUrl, null);
+        });
+    }
+
+    private byte[] buildPayload(String imageUrl) throws JsonProcessingException {
+        ObjectNode root = chatPayload();
+        ArrayNode userContent = userContent(root, "Определи время на фотографии часов.");
+        addImage(userContent, imageUrl);
+
+        ObjectNode schema = responseSchema(root, "clock_time");
+        ObjectNode properties = schema.putObject("properties");
+        ObjectNode time = properties.putObject("time");
+        time.put("type", "string");
+        ArrayNode required = schema.putArray("required");
+        required.add("time");
+
+        return mapper.writeValueAsBytes(root);
+    }
+
+    /** One request for several photos; each image is preceded by its 1-based number. */
+    private byte[] buildBatchPayload(List<String> imageUrls) throws JsonProcessingException {
+        ObjectNode root = chatPayload();
+        ArrayNode userContent = userContent(root, "Ниже " + imageUrls.size() + " разных фотографий часов. "
+            + "Для каждой фотографии отдельно определи время и верни его вместе с номером фотографии.");
+        for (int i = 0; i < imageUrls.size(); i++) {
+            ObjectNode label = userContent.addObject();
+            label.put("type", "text");
+            label.put("text", "Фотография " + (i + 1) + ":");
+            addImage(userContent, imageUrls.get(i));
         }
 
-        String reason = upload.errorMessage() == null ? "unknown" : upload.errorMessage();
-        log("Upload failed, using Telegram URL. reason=" + reason);
-        return fallbackUrl;
+        ObjectNode schema = responseSchema(root, "clock_times");
+        ObjectNode times = schema.putObject("properties").putObject("times");
+        times.put("type", "array");
+        ObjectNode item = times.putObject("items");
+        item.put("type", "object");
+        ObjectNode itemProperties = item.putObject("properties");
+        itemProperties.putObject("index").put("type", "integer");
+        itemProperties.putObject("time").put("type", "string");
+        item.putArray("required").add("index").add("time");
+        item.put("additionalProperties", false);
+        schema.putArray("required").add("times");
+
+        return mapper.writeValueAsBytes(root);
     }
 
-    private String buildPayload(String imageUrl) throws JsonProcessingException {
+    private ObjectNode chatPayload() {
         ObjectNode root = mapper.createObjectNode();
         root.put("stream", false);
 
@@ -129,106 +459,271 @@ public class GeminiClient {
         ObjectNode systemText = systemContent.addObject();
         systemText.put("type", "text");
         systemText.put("text", config.systemPrompt());
+        return root;
+    }
 
-        ObjectNode userMessage = messages.addObject();
+    private static ArrayNode userContent(ObjectNode root, String text) {
+        ObjectNode userMessage = ((ArrayNode) root.get("messages")).addObject();
         userMessage.put("role", "user");
         ArrayNode userContent = userMessage.putArray("content");
         ObjectNode userText = userContent.addObject();
         userText.put("type", "text");
-        userText.put("text", "Определи время на фотографии часов.");
-        ObjectNode userImage = userContent.addObject();
+        userText.put("text", text);
+        return userContent;
+    }
+
+    private static void addImage(ArrayNode content, String imageUrl) {
+        ObjectNode userImage = content.addObject();
         userImage.put("type", "image_url");
         ObjectNode imageUrlNode = userImage.putObject("image_url");
         imageUrlNode.put("url", imageUrl);
+    }
 
+    /** Adds a strict JSON schema response format and returns its empty object schema. */
+    private static ObjectNode responseSchema(ObjectNode root, String name) {
         ObjectNode responseFormat = root.putObject("response_format");
         responseFormat.put("type", "json_schema");
         ObjectNode jsonSchema = responseFormat.putObject("json_schema");
-        jsonSchema.put("name", "clock_time");
+        jsonSchema.put("name", name);
         ObjectNode schema = jsonSchema.putObject("schema");
         schema.put("type", "object");
-        ObjectNode properties = schema.putObject("properties");
-        ObjectNode time = properties.putObject("time");
-        time.put("type", "string");
-        ArrayNode required = schema.putArray("required");
-        required.add("time");
         schema.put("additionalProperties", false);
-
-        return mapper.writeValueAsString(root);
+        return schema;
     }
 
     private GeminiResult parseResponse(String body) {
+        JsonNode contentNode = responseContent(body);
+        String extracted;
+        String rawContent;
+        if (contentNode.isObject()) {
+            JsonNode timeNode = contentNode.get("time");
+            rawContent = contentNode.toString();
+            extracted = timeNode != null ? TimeNormalizer.normalize(timeNode.asText()) : "UNKNOWN";
+        } else {
+            rawContent = contentNode.asText();
+            extracted = extractTimeFromContent(rawContent);
+        }
+        if ("UNKNOWN".equals(extracted)) {
+            log("Gemini parsed UNKNOWN from content=" + truncate(rawContent, 1000));
+        }
+        return GeminiResult.ok(extracted, rawContent);
+    }
+
+    /**
+     * @return one result per image, null where the answer has no entry for that index
+     * @throws UpstreamException.Malformed if the answer has no list of times at all
+     */
+    private GeminiResult[] parseBatchResponse(String body, int size) {
+        JsonNode contentNode = responseContent(body);
+        JsonNode content = contentNode;
+        if (!contentNode.isObject()) {
+            try {
+                content = mapper.readTree(contentNode.asText());
+            } catch (IOException e) {
+                throw new UpstreamException.Malformed("Batch content is not JSON: " + truncate(contentNode.asText(), 200));
+            }
+        }
+        JsonNode times = content == null ? null : content.get("times");
+        if (times == null || !times.isArray()) {
+            throw new UpstreamException.Malformed("Batch content has no times array");
+        }
+        GeminiResult[] results = new GeminiResult[size];
+        for (JsonNode entry : times) {
+            JsonNode index = entry.get("index");
+            JsonNode time = entry.get("time");
+            if (index == null || !index.canConvertToInt() || time == null) {
+                continue;
+            }
+            int position = index.asInt() - 1;
+            if (position >= 0 && position < size && results[position] == null) {
+                results[position] = GeminiResult.ok(TimeNormalizer.normalize(time.asText()), entry.toString());
+            }
+        }
+        return results;
+    }
+
+    private JsonNode responseContent(String body) {
         try {
             JsonNode root = mapper.readTree(body);
             JsonNode codeNode = root.get("code");
             if (codeNode != null && codeNode.isInt() && codeNode.asInt() != 200) {
-                int code = codeNode.asInt();
                 String msg = root.has("msg") ? root.get("msg").asText() : "API error";
-                return GeminiResult.error("API error code=" + code + " msg=" + msg);
+                throw new UpstreamException.Api(codeNode.asInt(), msg);
             }
             JsonNode successNode = root.get("success");
             if (successNode != null && successNode.isBoolean() && !successNode.asBoolean()) {
                 String msg = root.has("msg") ? root.get("msg").asText() : "API error";
-                return GeminiResult.error("API error: " + msg);
+                throw new UpstreamException.Api(null, msg);
             }
             JsonNode contentNode = root.at("/choices/0/message/content");
             if (contentNode.isMissingNode() || contentNode.isNull()) {
-                return GeminiResult.error("Response missing content");
+                throw new UpstreamException.Malformed("Response missing content");
             }
-            String extracted;
-            String rawContent;
-            if (contentNode.isObject()) {
-                JsonNode timeNode = contentNode.get("time");
-                rawContent = contentNode.toString();
-                extracted = timeNode != null ? TimeNormalizer.normalize(timeNode.asText()) : "UNKNOWN";
-            } else {
-                rawContent = contentNode.asText();
-                extracted = extractTimeFromContent(rawContent);
+            return contentNode;
+        } catch (IOException e) {
+            throw new UpstreamException.Malformed("Failed to parse response: " + e.getMessage());
+        }
+    }
+
+    /** {@code mode} is null when the Telegram URL is used, which says nothing about either mode. */
+    private record PreparedImage(String url, ImageDeliveryPolicy.Mode mode) {
+    }
+
+    /** Up to two identical exchanges racing for one result. */
+    private final class HedgedExchange {
+        private final HttpRequest request;
+        private final CompletableFuture<HttpResponse<String>> result = new CompletableFuture<>();
+        private final List<CompletableFuture<HttpResponse<String>>> exchanges = new ArrayList<>();
+        private int failed;
+        private Throwable firstError;
+        private HttpResponse<String> firstFailedResponse;
+
+        private HedgedExchange(HttpRequest request) {
+            this.request = request;
+        }
+
+        /** @param permit the limiter slot the hedge holds until its exchange ends, null for the first exchange */
+        synchronized void launch(ConcurrencyLimiter.Permit permit) {
+            if (result.isDone()) {
+                if (permit != null) {
+                    permit.release(ConcurrencyLimiter.Outcome.IGNORE, 0);
+                }
+                return;
             }
-            if ("UNKNOWN".equals(extracted)) {
-                log("Gemini parsed UNKNOWN from content=" + truncate(rawContent, 1000));
+            int index = exchanges.size();
+            long startedAt = System.currentTimeMillis();
+            CompletableFuture<HttpResponse<String>> exchange =
+                httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+            exchanges.add(exchange);
+            exchange.whenComplete((response, error) -> {
+                if (permit != null) {
+                    permit.release(outcome(response, error), System.currentTimeMillis() - startedAt);
+                }
+                settle(index, startedAt, response, error);
+            });
+        }
+
+        /**
+         * A hedge is one more call to the upstream, so it needs a free limiter slot like any other; when
+         * the limiter is full or has callers queued, the hedge is skipped rather than made to wait.
+         */
+        void hedge() {
+            if (result.isDone()) {
+                return;
+            }
+            ConcurrencyLimiter.Permit permit = chatLimiter.tryAcquire();
+            if (permit == null) {
+                HEDGES.inc("no_permit");
+                return;
+            }
+            if (!hedgeBudget.tryAcquire()) {
+                permit.release(ConcurrencyLimiter.Outcome.IGNORE, 0);
+                HEDGES.inc("denied");
+                return;
+            }
+            HEDGES.inc("fired");
+            log("Hedging chat request still running after the p" + config.hedgePercentile() + " latency");
+            launch(permit);
+        }
+
+        /** The losing exchange is cancelled, which says nothing about the upstream's load. */
+        private ConcurrencyLimiter.Outcome outcome(HttpResponse<String> response, Throwable error) {
+            if (error instanceof CancellationException) {
+                return ConcurrencyLimiter.Outcome.IGNORE;
+            }
+            if (error == null && response.statusCode() >= 200 && response.statusCode() < 300) {
+                return ConcurrencyLimiter.Outcome.SUCCESS;
+            }
+            UpstreamException failure = error != null
+                ? UpstreamException.from(error)
+                : new UpstreamException.Status(response.statusCode(), null);
+            return failure.overload() ? ConcurrencyLimiter.Outcome.OVERLOAD : ConcurrencyLimiter.Outcome.IGNORE;
+        }
+
+        /**
+         * The first 2xx response wins and cancels the other exchange. A failed exchange or a non-2xx status
+         * only decides the result once every exchange has finished, and then the first of them is returned.
+         */
+        private synchronized void settle(int index, long startedAt, HttpResponse<String> response, Throwable error) {
+            if (result.isDone()) {
+                return;
+            }
+            if (error == null && response.statusCode() >= 200 && response.statusCode() < 300) {
+                chatLatency.record(System.currentTimeMillis() - startedAt);
+                if (index > 0) {
+                    HEDGES.inc("won");
+                }
+                result.complete(response);
+                for (CompletableFuture<HttpResponse<String>> other : exchanges) {
+                    if (!other.isDone()) {
+                        other.cancel(true);
+                    }
+                }
+                return;
+            }
+            failed++;
+            if (firstError == null && firstFailedResponse == null) {
+                firstError = error;
+                firstFailedResponse = response;
+            }
+            if (failed == exchanges.size()) {
+                if (firstFailedResponse != null) {
+                    result.complete(firstFailedResponse);
+                } else {
+                    result.completeExceptionally(firstError);
+                }
+            }
+        }
+    }
+
+    /** An image waiting in the batcher together with the future its caller holds. */
+    private record BatchItem(PreparedImage image, byte[] imageBytes, String fileName, long preparedAt, Trace trace,
+                             CompletableFuture<GeminiResult> result) {
+        void settle(GeminiResult value, Throwable error) {
+            if (error != null) {
+                result.complete(GeminiResult.error(error.getMessage()));
+            } else {
+                result.complete(value);
             }
-            return GeminiResult.ok(extracted, rawContent);
-        } catch (IOException e) {
-            return GeminiResult.error("Failed to parse response: " + e.getMessage());
         }
     }
 
+    private record ChatRequest(HttpRequest.BodyPublisher body, ImageDeliveryPolicy.Mode mode, long prepareMs) {
+    }
+
     private void log(String message) {
         System.out.println("[GeminiClient] " + message);
     }
 
-    private boolean isRetryable(GeminiResult result) {
-        if (result == null || result.errorMessage() == null) {
-            return false;
-        }
-        String msg = result.errorMessage().toLowerCase();
-        return msg.contains("timed out")
-            || msg.contains("timeout")
-            || msg.contains("server exception")
-            || msg.contains("bad response status: 429")
-            || msg.contains("bad response status: 500")
-            || msg.contains("bad response status: 502")
-            || msg.contains("bad response status: 503")
-            || msg.contains("bad response status: 504")
-            || msg.contains("bad response status: 524")
-            || msg.contains("api error code=429")
-            || msg.contains("api error code=500")
-            || msg.contains("api error code=502")
-            || msg.contains("api error code=503")
-            || msg.contains("api error code=504")
-            || msg.contains("api error code=524");
+    /**
+     * Decorrelated jitter: each delay is drawn between the base delay and three times the previous one.
+     * A Retry-After header from the server takes precedence.
+     */
+    private long nextRetryDelayMs(long previousDelayMs, Duration retryAfter) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (retryAfter != null && !retryAfter.isNegative()) {
+            long jitter = random.nextLong(RETRY_BASE_DELAY_MS / 10 + 1);
+            return Math.min(RETRY_MAX_DELAY_MS, retryAfter.toMillis() + jitter);
+        }
+        long upper = Math.max(RETRY_BASE_DELAY_MS + 1, previousDelayMs * 3);
+        return Math.min(RETRY_MAX_DELAY_MS, random.nextLong(RETRY_BASE_DELAY_MS, upper));
     }
 
-    private void sleepBeforeRetry(int attempt) {
-        long delayMs = 30000L * attempt;
-        if (delayMs > 120_000L) {
-            delayMs = 120_000L;
+    private Duration parseRetryAfter(HttpResponse<?> response) {
+        String value = response.headers().firstValue("Retry-After").orElse(null);
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Long.parseLong(value.trim()));
+        } catch (NumberFormatException ignored) {
         }
         try {
-            Thread.sleep(delayMs);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+            ZonedDateTime at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            Duration delay = Duration.between(ZonedDateTime.now(at.getZone()), at);
+            return delay.isNegative() ? Duration.ZERO : delay;
+        } catch (DateTimeParseException ignored) {
+            return null;
         }
     }
 
@@ -6,6 +6,25 @@ public record GeminiResult(String time, String status, String errorMessage, Stri
         return new GeminiResult(normalized, "ok", null, rawContent);
     }
 
+    public static GeminiResult cached(String time, String rawContent) {
+        return new GeminiResult(time, "cached", null, rawContent);
+    }
+
+    /** Read on this host without asking the model; {@code reader} names the local reader, e.g. {@code digital}. */
+    public static GeminiResult local(String reader, String time, String rawContent) {
+        return new GeminiResult(time, "local_" + reader, null, rawContent);
+    }
+
+    /** The image was refused before reaching the model; {@code reason} is a {@link ProcessedImage} constant. */
+    public static GeminiResult rejected(String reason) {
+        return new GeminiResult("UNKNOWN", "rejected", reason, null);
+    }
+
+    /** The upstream is overloaded or failing and was not asked; the user should try again later. */
+    public static GeminiResult unavailable(String message) {
+        return new GeminiResult("UNKNOWN", "unavailable", message, null);
+    }
+
     public static GeminiResult error(String message) {
         return new GeminiResult("UNKNOWN", "error", message, null);
     }
@@ -0,0 +1,32 @@
+package com.chasi.clockbot;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Small luma raster of a decoded photo for the local analysis stages. It is area-averaged down to at
+ * most {@link #MAX_DIMENSION} pixels a side, which keeps the passes over it in the low milliseconds.
+ */
+public record GrayImage(int width, int height, byte[] pixels) {
+    public static final int MAX_DIMENSION = 640;
+
+    public static GrayImage of(BufferedImage image) {
+        double scale = Math.min(1.0, (double) MAX_DIMENSION / Math.max(image.getWidth(), image.getHeight()));
+        int width = (int) Math.max(1, Math.round(image.getWidth() * scale));
+        int height = (int) Math.max(1, Math.round(image.getHeight() * scale));
+        BufferedImage rgb = AreaResampler.resize(image, width, height);
+        int[] source = ((DataBufferInt) rgb.getRaster().getDataBuffer()).getData();
+        byte[] pixels = new byte[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            int pixel = source[i];
+            int luma = (77 * ((pixel >> 16) & 0xFF) + 150 * ((pixel >> 8) & 0xFF) + 29 * (pixel & 0xFF)) >> 8;
+            pixels[i] = (byte) luma;
+        }
+        return new GrayImage(width, height, pixels);
+    }
+
+    /** @return the luma at {@code (x, y)} in 0..255 */
+    public int get(int x, int y) {
+        return pixels[y * width + x] & 0xFF;
+    }
+}
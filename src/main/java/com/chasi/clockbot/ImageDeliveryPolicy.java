@@ -0,0 +1,85 @@
+package com.chasi.clockbot;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Chooses how an image reaches the model: inline as a {@code data:} URL in the chat request, or
+ * uploaded to Kie storage first and fetched by the model. Images above the inline limit are always
+ * uploaded. Below it, both modes are alternated until each has a few samples, so one cold connection
+ * does not decide; after that the mode with the lower moving average of upload-plus-first-attempt
+ * latency wins, and a small share of requests tries the other mode so both averages stay current.
+ */
+public class ImageDeliveryPolicy {
+    public enum Mode {
+        INLINE, UPLOAD;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final double SMOOTHING = 0.2;
+    private static final double EXPLORE_RATE = 0.05;
+    private static final int WARMUP_SAMPLES = 5;
+    private static final double FAILURE_PENALTY_FACTOR = 2.0;
+    private static final long FAILURE_PENALTY_MIN_MS = 30_000;
+
+    private final long inlineMaxBytes;
+    private final double[] averageMs = {Double.NaN, Double.NaN};
+    private final int[] samples = new int[2];
+
+    public ImageDeliveryPolicy(long inlineMaxBytes) {
+        this.inlineMaxBytes = inlineMaxBytes;
+        Metrics.Callback latency = Metrics.gauge("clockbot_image_delivery_latency_ms",
+            "Moving average of upload plus first attempt latency by delivery mode", "mode");
+        for (Mode mode : Mode.values()) {
+            latency.register(() -> averageMs(mode), mode.label());
+        }
+    }
+
+    public Mode choose(int imageBytes) {
+        if (imageBytes > inlineMaxBytes) {
+            return Mode.UPLOAD;
+        }
+        double inline;
+        double upload;
+        synchronized (this) {
+            int inlineSamples = samples[Mode.INLINE.ordinal()];
+            int uploadSamples = samples[Mode.UPLOAD.ordinal()];
+            if (Math.min(inlineSamples, uploadSamples) < WARMUP_SAMPLES) {
+                return inlineSamples <= uploadSamples ? Mode.INLINE : Mode.UPLOAD;
+            }
+            inline = averageMs[Mode.INLINE.ordinal()];
+            upload = averageMs[Mode.UPLOAD.ordinal()];
+        }
+        Mode faster = inline <= upload ? Mode.INLINE : Mode.UPLOAD;
+        if (ThreadLocalRandom.current().nextDouble() < EXPLORE_RATE) {
+            return faster == Mode.INLINE ? Mode.UPLOAD : Mode.INLINE;
+        }
+        return faster;
+    }
+
+    public synchronized void recordLatency(Mode mode, long latencyMs) {
+        int index = mode.ordinal();
+        samples[index]++;
+        double weight = Math.max(SMOOTHING, 1.0 / samples[index]);
+        double current = Double.isNaN(averageMs[index]) ? 0 : averageMs[index];
+        averageMs[index] = current + weight * (latencyMs - current);
+    }
+
+    /** A request that failed outright counts as much slower than anything observed so far. */
+    public synchronized void recordFailure(Mode mode) {
+        double slowest = FAILURE_PENALTY_MIN_MS;
+        for (double value : averageMs) {
+            if (!Double.isNaN(value)) {
+                slowest = Math.max(slowest, value * FAILURE_PENALTY_FACTOR);
+            }
+        }
+        recordLatency(mode, (long) slowest);
+    }
+
+    public synchronized double averageMs(Mode mode) {
+        return averageMs[mode.ordinal()];
+    }
+}
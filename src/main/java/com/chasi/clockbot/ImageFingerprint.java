@@ -0,0 +1,8 @@
+package com.chasi.clockbot;
+
+/**
+ * @param hash      64-bit difference hash used as the BK-tree key
+ * @param thumbnail 32x32 grayscale thumbnail used to confirm a candidate
+ */
+public record ImageFingerprint(long hash, byte[] thumbnail) {
+}
@@ -1,109 +1,222 @@
 package com.chasi.clockbot;
 
-import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.stream.ImageOutputStream;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Iterator;
 
 public class ImagePreprocessor {
     private static final int MAX_DIMENSION = 1024;
-    private static final long MAX_BYTES_BEFORE = 1_000_000;
+    private static final int HEADER_BYTES = 16;
+    private static final int DECODE_OVERSAMPLING = 2;
+    private static final long MAX_SOURCE_PIXELS = 200_000_000L;
 
-    public static ProcessedImage preprocess(byte[] bytes, String fileName) {
+    static {
+        ImageIO.setUseCache(false);
+    }
+
+    public static ProcessedImage preprocess(byte[] bytes, String fileName, long targetBytes, Trace trace) {
         if (bytes == null || bytes.length == 0) {
-            return new ProcessedImage(bytes, fileName);
+            return new ProcessedImage(bytes, fileName, null, null, null, 0, null);
         }
+        return preprocess(new ByteArrayInputStream(bytes), fileName, bytes.length, targetBytes, 0, null, trace);
+    }
 
-        BufferedImage image = readImage(bytes);
-        if (image == null) {
-            return new ProcessedImage(bytes, fileName);
+    /**
+     * Decodes the image while it is read from {@code input}, aborting as soon as more than {@code maxBytes}
+     * arrive or the header shows it is not an image. The original bytes are kept only while they fit into
+     * {@code targetBytes} and can be sent unchanged; otherwise the image is re-encoded to fit. Photos that
+     * {@code screen} refuses are rejected before they are resized or encoded. If {@code cropMarginPercent}
+     * is positive and the clock is found, only the clock and that margin around it are encoded.
+     */
+    public static ProcessedImage preprocess(InputStream input, String fileName, long maxBytes, long targetBytes,
+                                            int cropMarginPercent, ImageScreen screen, Trace trace) {
+        SizeLimitedInputStream limited = new SizeLimitedInputStream(input, maxBytes);
+        RecordingInputStream recording = new RecordingInputStream(limited, (int) Math.min(Integer.MAX_VALUE, targetBytes));
+        Trace.Span decodeSpan = trace.span("decode");
+        Decoded decoded;
+        try {
+            decoded = decode(recording);
+            if (decoded == null) {
+                return undecodable(recording, fileName, limited);
+            }
+            if (decoded.image() == null) {
+                return ProcessedImage.rejected(ProcessedImage.REJECTED_TOO_LARGE, limited.count());
+            }
+            recording.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException | RuntimeException e) {
+            // Readers also fail on corrupt data with unchecked exceptions such as IndexOutOfBoundsException.
+            if (limited.exceeded()) {
+                return ProcessedImage.rejected(ProcessedImage.REJECTED_TOO_LARGE, limited.count());
+            }
+            System.err.println("[ImagePreprocessor] Failed to read image: " + e.getMessage());
+            return new ProcessedImage(null, fileName, null, null, null, limited.count(), null);
+        } finally {
+            decodeSpan.bytesIn(limited.count()).end();
+        }
+        long originalSize = limited.count();
+        BufferedImage image = decoded.image();
+        GrayImage luma = GrayImage.of(image);
+        if (screen != null) {
+            Trace.Span screenSpan = trace.span("screen");
+            String rejection = screen.check(luma, decoded.sourceWidth(), decoded.sourceHeight());
+            screenSpan.detail(rejection).end();
+            if (rejection != null) {
+                return ProcessedImage.rejected(rejection, originalSize);
+            }
+        }
+
+        DialDetector.Dial dial = null;
+        ImageFingerprint fingerprint = null;
+        if (cropMarginPercent > 0) {
+            Trace.Span locateSpan = trace.span("locate");
+            ClockLocator.Location location = ClockLocator.locate(luma, cropMarginPercent / 100.0);
+            locateSpan.detail(location.describe()).end();
+            dial = location.dial();
+            if (location.crop() != null) {
+                image = crop(image, luma, location.crop());
+            }
+            // On a whole wall a moved hand changes too few thumbnail cells, so only a located clock is compared.
+            if (location.source() != null) {
+                fingerprint = PerceptualHash.fingerprint(image);
+            }
         }
 
         int width = image.getWidth();
         int height = image.getHeight();
         int maxSide = Math.max(width, height);
+        boolean cropped = image != decoded.image();
         boolean shouldResize = maxSide > MAX_DIMENSION;
-        boolean shouldReencode = bytes.length > MAX_BYTES_BEFORE;
+        boolean shouldReencode = originalSize > targetBytes || cropped;
 
         if (!shouldResize && !shouldReencode) {
-            return new ProcessedImage(bytes, fileName);
+            return new ProcessedImage(recording.recorded(), fileName, fingerprint, luma, dial, originalSize, null);
         }
 
         double scale = shouldResize ? (double) MAX_DIMENSION / maxSide : 1.0;
         int newWidth = (int) Math.max(1, Math.round(width * scale));
         int newHeight = (int) Math.max(1, Math.round(height * scale));
 
-        BufferedImage output = shouldResize ? resize(image, newWidth, newHeight) : toRgb(image);
-        byte[] encoded = encodeJpeg(output, 0.75f);
-        if (encoded == null || encoded.length == 0) {
-            return new ProcessedImage(bytes, fileName);
+        Trace.Span resizeSpan = trace.span("resize").detail(decoded.sourceWidth() + "x" + decoded.sourceHeight()
+            + "/" + decoded.subsampling() + "->" + newWidth + "x" + newHeight);
+        // A crop shares the decoded raster, so it is always copied into a compact image here.
+        BufferedImage output = shouldResize || cropped
+            ? AreaResampler.resize(image, newWidth, newHeight)
+            : toRgb(image);
+        resizeSpan.end();
+        Trace.Span encodeSpan = trace.span("encode");
+        JpegEncoder.Encoded encoded = JpegEncoder.encode(output, targetBytes);
+        encodeSpan.bytesOut(encoded == null ? 0 : encoded.bytes().length)
+            .detail(encoded == null ? null : encoded.describe())
+            .end();
+        if (encoded == null || encoded.bytes().length == 0) {
+            return new ProcessedImage(recording.recorded(), fileName, fingerprint, luma, dial, originalSize, null);
         }
 
         String newName = replaceExtension(fileName, "jpg");
-        return new ProcessedImage(encoded, newName);
+        return new ProcessedImage(encoded.bytes(), newName, fingerprint, luma, dial, originalSize, null);
     }
 
-    private static BufferedImage readImage(byte[] bytes) {
-        try (ByteArrayInputStream input = new ByteArrayInputStream(bytes)) {
-            return ImageIO.read(input);
-        } catch (IOException e) {
-            return null;
+    /**
+     * Reads the dimensions from the header first and lets the reader skip pixels so that a large photo is
+     * never rasterized at full resolution. The image is decoded at no less than twice the target size so
+     * the final resize can still average away the aliasing of the subsampling.
+     *
+     * @return null if no reader understands the input; a result without image if it has too many pixels
+     */
+    private static Decoded decode(InputStream input) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(input)) {
+            if (stream == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > MAX_SOURCE_PIXELS) {
+                    return new Decoded(null, width, height, 0);
+                }
+                int subsampling = Math.max(1, Math.max(width, height) / (DECODE_OVERSAMPLING * MAX_DIMENSION));
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                return new Decoded(reader.read(0, param), width, height, subsampling);
+            } finally {
+                reader.dispose();
+            }
         }
     }
 
-    private static BufferedImage resize(BufferedImage source, int width, int height) {
-        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g2d = target.createGraphics();
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2d.drawImage(source, 0, 0, width, height, null);
-        g2d.dispose();
-        return target;
-    }
-
-    private static BufferedImage toRgb(BufferedImage source) {
-        if (source.getType() == BufferedImage.TYPE_INT_RGB) {
-            return source;
+    /**
+     * ImageIO has no reader for formats such as WebP or HEIC, but the model does. Such images are passed
+     * through unchanged; anything that does not look like an image is rejected without reading further.
+     */
+    private static ProcessedImage undecodable(RecordingInputStream recording, String fileName,
+                                              SizeLimitedInputStream limited) throws IOException {
+        byte[] header = recording.prefix(HEADER_BYTES);
+        if (header.length < HEADER_BYTES) {
+            recording.readNBytes(HEADER_BYTES - header.length);
+            header = recording.prefix(HEADER_BYTES);
         }
-        BufferedImage target = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_RGB);
-        Graphics2D g2d = target.createGraphics();
-        g2d.drawImage(source, 0, 0, null);
-        g2d.dispose();
-        return target;
+        if (!looksLikeImage(header)) {
+            return ProcessedImage.rejected(ProcessedImage.REJECTED_NOT_IMAGE, limited.count());
+        }
+        recording.recordAll();
+        recording.transferTo(OutputStream.nullOutputStream());
+        return new ProcessedImage(recording.recorded(), fileName, null, null, null, limited.count(), null);
     }
 
-    private static byte[] encodeJpeg(BufferedImage image, float quality) {
-        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpg");
-        if (!writers.hasNext()) {
-            return null;
+    private static boolean looksLikeImage(byte[] header) {
+        if (header.length < 4) {
+            return false;
         }
-
-        ImageWriter writer = writers.next();
-        ImageWriteParam param = writer.getDefaultWriteParam();
-        if (param.canWriteCompressed()) {
-            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-            param.setCompressionQuality(quality);
+        int b0 = header[0] & 0xFF;
+        int b1 = header[1] & 0xFF;
+        if (b0 == 0xFF && b1 == 0xD8) {
+            return true;
         }
+        String ascii = new String(header, StandardCharsets.ISO_8859_1);
+        return ascii.startsWith("\u0089PNG")
+            || ascii.startsWith("GIF8")
+            || ascii.startsWith("BM")
+            || ascii.startsWith("II*\u0000")
+            || ascii.startsWith("MM\u0000*")
+            || (ascii.startsWith("RIFF") && ascii.length() >= 12 && ascii.startsWith("WEBP", 8))
+            || (ascii.length() >= 8 && ascii.startsWith("ftyp", 4));
+    }
 
-        try (ByteArrayOutputStream output = new ByteArrayOutputStream();
-             ImageOutputStream ios = ImageIO.createImageOutputStream(output)) {
-            writer.setOutput(ios);
-            writer.write(null, new IIOImage(image, null, null), param);
-            writer.dispose();
-            return output.toByteArray();
-        } catch (IOException e) {
-            writer.dispose();
-            return null;
+    /** @param region {x, y, width, height} in the coordinates of {@code luma} */
+    private static BufferedImage crop(BufferedImage image, GrayImage luma, int[] region) {
+        double scaleX = (double) image.getWidth() / luma.width();
+        double scaleY = (double) image.getHeight() / luma.height();
+        int x = (int) Math.floor(region[0] * scaleX);
+        int y = (int) Math.floor(region[1] * scaleY);
+        int width = Math.min(image.getWidth() - x, (int) Math.ceil(region[2] * scaleX));
+        int height = Math.min(image.getHeight() - y, (int) Math.ceil(region[3] * scaleY));
+        return image.getSubimage(x, y, width, height);
+    }
+
+    private static BufferedImage toRgb(BufferedImage source) {
+        if (source.getType() == BufferedImage.TYPE_INT_RGB) {
+            return source;
         }
+        return AreaResampler.resize(source, source.getWidth(), source.getHeight());
     }
 
     private static String replaceExtension(String fileName, String extension) {
@@ -117,4 +230,125 @@ public class ImagePreprocessor {
         }
         return name + "." + extension;
     }
+
+    private record Decoded(BufferedImage image, int sourceWidth, int sourceHeight, int subsampling) {
+    }
+
+    /** Fails the read once more than {@code limit} bytes have been consumed. */
+    private static final class SizeLimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count;
+        private boolean exceeded;
+
+        private SizeLimitedInputStream(InputStream input, long limit) {
+            super(input);
+            this.limit = limit;
+        }
+
+        long count() {
+            return count;
+        }
+
+        boolean exceeded() {
+            return exceeded;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                advance(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                advance(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            if (skipped > 0) {
+                advance(skipped);
+            }
+            return skipped;
+        }
+
+        private void advance(long bytes) throws IOException {
+            count += bytes;
+            if (count > limit) {
+                exceeded = true;
+                throw new IOException("Image exceeds " + limit + " bytes");
+            }
+        }
+    }
+
+    /** Keeps a copy of the bytes read as long as they fit into {@code limit}. */
+    private static final class RecordingInputStream extends FilterInputStream {
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        private long limit;
+
+        private RecordingInputStream(InputStream input, int limit) {
+            super(input);
+            this.limit = limit;
+        }
+
+        void recordAll() {
+            limit = Long.MAX_VALUE;
+        }
+
+        byte[] recorded() {
+            return copy == null ? null : copy.toByteArray();
+        }
+
+        byte[] prefix(int length) {
+            if (copy == null) {
+                return new byte[0];
+            }
+            byte[] bytes = copy.toByteArray();
+            return bytes.length <= length ? bytes : Arrays.copyOf(bytes, length);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                record(new byte[] {(byte) value}, 0, 1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                record(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(8192, Math.max(1, n))];
+            int read = read(buffer, 0, buffer.length);
+            return Math.max(0, read);
+        }
+
+        private void record(byte[] buffer, int offset, int length) {
+            if (copy == null) {
+                return;
+            }
+            if (copy.size() + (long) length > limit) {
+                copy = null;
+                return;
+            }
+            copy.write(buffer, offset, length);
+        }
+    }
 }
@@ -0,0 +1,118 @@
+package com.chasi.clockbot;
+
+/**
+ * Refuses photos that cannot show a readable time before anything is uploaded: too small, blank or
+ * black, out of focus, or, if {@code requireClock} is set, without a dial or display. A check whose
+ * threshold is 0 is skipped.
+ *
+ * @param minSide       shorter side of the source image in pixels
+ * @param minContrast   luma spread between the 2nd and 98th percentile of the widest-spread tile
+ * @param minSharpness  Laplacian variance of the sharpest tile of the luma copy
+ * @param requireClock  refuse photos in which neither a round dial nor a row of digits is found
+ */
+public record ImageScreen(int minSide, int minContrast, int minSharpness, boolean requireClock) {
+    private static final int TILES = 8;
+
+    private static final Metrics.Counter REJECTIONS = Metrics.counter("clockbot_screen_rejections_total",
+        "Photos refused before recognition", "reason");
+
+    public static ImageScreen from(Config config) {
+        return new ImageScreen(config.screenMinSide(), config.screenMinContrast(), config.screenMinSharpness(),
+            config.screenRequireClock());
+    }
+
+    /** @return the {@link ProcessedImage} rejection reason, or null if the photo is worth recognizing */
+    public String check(GrayImage luma, int sourceWidth, int sourceHeight) {
+        String reason = reason(luma, sourceWidth, sourceHeight);
+        if (reason != null) {
+            REJECTIONS.inc(reason);
+        }
+        return reason;
+    }
+
+    private String reason(GrayImage luma, int sourceWidth, int sourceHeight) {
+        if (Math.min(sourceWidth, sourceHeight) < minSide) {
+            return ProcessedImage.REJECTED_TOO_SMALL;
+        }
+        if (minContrast > 0 && contrast(luma) < minContrast) {
+            return ProcessedImage.REJECTED_LOW_CONTRAST;
+        }
+        if (minSharpness > 0 && sharpness(luma) < minSharpness) {
+            return ProcessedImage.REJECTED_BLURRY;
+        }
+        if (requireClock && DialDetector.find(luma) == null && !SevenSegmentReader.hasDigitRow(luma)) {
+            return ProcessedImage.REJECTED_NO_CLOCK;
+        }
+        return null;
+    }
+
+    /**
+     * Spread of the luma histogram in the widest of {@value #TILES}x{@value #TILES} tiles, ignoring the
+     * darkest and brightest two percent of it. A lit display on a dark wall covers too little of the frame
+     * to move the whole frame's percentiles, but fills enough of a tile.
+     */
+    static int contrast(GrayImage luma) {
+        int width = luma.width();
+        int height = luma.height();
+        int[][] histograms = new int[TILES * TILES][256];
+        int[] count = new int[TILES * TILES];
+        for (int y = 0; y < height; y++) {
+            int tileRow = y * TILES / height * TILES;
+            for (int x = 0; x < width; x++) {
+                int tile = tileRow + x * TILES / width;
+                histograms[tile][luma.get(x, y)]++;
+                count[tile]++;
+            }
+        }
+        int widest = 0;
+        for (int tile = 0; tile < histograms.length; tile++) {
+            if (count[tile] > 0) {
+                widest = Math.max(widest, percentile(histograms[tile], count[tile], 0.98)
+                    - percentile(histograms[tile], count[tile], 0.02));
+            }
+        }
+        return widest;
+    }
+
+    /**
+     * Variance of the Laplacian in the sharpest of {@value #TILES}x{@value #TILES} tiles. A clock in
+     * focus on a plain wall is sharp only where it is, so the whole frame's variance would understate it.
+     */
+    static double sharpness(GrayImage luma) {
+        int width = luma.width();
+        int height = luma.height();
+        double[] sum = new double[TILES * TILES];
+        double[] sumOfSquares = new double[TILES * TILES];
+        int[] count = new int[TILES * TILES];
+        for (int y = 1; y < height - 1; y++) {
+            int tileRow = y * TILES / height * TILES;
+            for (int x = 1; x < width - 1; x++) {
+                int laplacian = luma.get(x - 1, y) + luma.get(x + 1, y) + luma.get(x, y - 1) + luma.get(x, y + 1)
+                    - 4 * luma.get(x, y);
+                int tile = tileRow + x * TILES / width;
+                sum[tile] += laplacian;
+                sumOfSquares[tile] += (double) laplacian * laplacian;
+                count[tile]++;
+            }
+        }
+        double sharpest = 0;
+        for (int tile = 0; tile < sum.length; tile++) {
+            if (count[tile] > 0) {
+                double mean = sum[tile] / count[tile];
+                sharpest = Math.max(sharpest, sumOfSquares[tile] / count[tile] - mean * mean);
+            }
+        }
+        return sharpest;
+    }
+
+    private static int percentile(int[] histogram, int count, double fraction) {
+        int seen = 0;
+        for (int value = 0; value < histogram.length; value++) {
+            seen += histogram[value];
+            if (seen > count * fraction) {
+                return value;
+            }
+        }
+        return histogram.length - 1;
+    }
+}
@@ -0,0 +1,183 @@
+package com.chasi.clockbot;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Encodes JPEGs that fit a byte budget. The highest quality that fits is found by bisection; if even
+ * the lowest acceptable quality is too large, the image is scaled down and searched again. Images
+ * without noticeable colour are written as single-channel grayscale, which saves the chroma planes.
+ *
+ * <p>Writers and output buffers are kept per thread, so repeated attempts allocate nothing but the
+ * final byte array.
+ */
+public class JpegEncoder {
+    private static final float MAX_QUALITY = 0.85f;
+    private static final float MIN_QUALITY = 0.4f;
+    private static final int QUALITY_STEPS = 4;
+    private static final int MAX_SCALE_STEPS = 3;
+    private static final int MIN_DIMENSION = 320;
+    private static final int GRAY_MAX_MEAN_SATURATION = 12;
+    private static final int SATURATION_SAMPLES_PER_SIDE = 64;
+
+    private static final ThreadLocal<ImageWriter> WRITERS = ThreadLocal.withInitial(JpegEncoder::newWriter);
+    private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+    /** Encoding outcome; {@code bytes} may exceed the budget if the smallest attempt still did. */
+    public record Encoded(byte[] bytes, float quality, int width, int height, boolean grayscale) {
+        public String describe() {
+            return String.format(Locale.ROOT, "%dx%d q=%.2f%s", width, height, quality, grayscale ? " gray" : "");
+        }
+    }
+
+    /** @return null if no JPEG writer is available or encoding failed */
+    public static Encoded encode(BufferedImage image, long maxBytes) {
+        ImageWriter writer = WRITERS.get();
+        if (writer == null) {
+            return null;
+        }
+        boolean grayscale = isGrayscale(image);
+        BufferedImage current = grayscale ? toGray(image) : image;
+        Buffer buffer = BUFFERS.get();
+        try {
+            for (int step = 0; ; step++) {
+                float quality = bestQuality(writer, current, buffer, maxBytes);
+                if (buffer.size() <= maxBytes || step == MAX_SCALE_STEPS
+                    || Math.max(current.getWidth(), current.getHeight()) <= MIN_DIMENSION) {
+                    return new Encoded(buffer.toByteArray(), quality, current.getWidth(), current.getHeight(),
+                        grayscale);
+                }
+                double scale = Math.max(0.5, Math.sqrt((double) maxBytes / buffer.size()) * 0.95);
+                int width = (int) Math.max(1, Math.round(current.getWidth() * scale));
+                int height = (int) Math.max(1, Math.round(current.getHeight() * scale));
+                current = AreaResampler.resize(current, width, height);
+                if (grayscale) {
+                    current = toGray(current);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[JpegEncoder] Failed to encode image: " + e.getMessage());
+            WRITERS.remove();
+            return null;
+        }
+    }
+
+    /**
+     * Leaves the buffer holding the encoding at the returned quality: the best one that fits, or the
+     * lowest one if nothing fits.
+     */
+    private static float bestQuality(ImageWriter writer, BufferedImage image, Buffer buffer, long maxBytes)
+        throws IOException {
+        write(writer, image, MAX_QUALITY, buffer);
+        if (buffer.size() <= maxBytes) {
+            return MAX_QUALITY;
+        }
+        float low = MIN_QUALITY;
+        float high = MAX_QUALITY;
+        float best = -1;
+        for (int i = 0; i < QUALITY_STEPS; i++) {
+            float quality = (low + high) / 2;
+            write(writer, image, quality, buffer);
+            if (buffer.size() <= maxBytes) {
+                best = quality;
+                low = quality;
+            } else {
+                high = quality;
+            }
+        }
+        float result = best < 0 ? MIN_QUALITY : best;
+        write(writer, image, result, buffer);
+        return result;
+    }
+
+    private static void write(ImageWriter writer, BufferedImage image, float quality, Buffer buffer)
+        throws IOException {
+        buffer.reset();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+        }
+        try (ImageOutputStream output = new MemoryCacheImageOutputStream(buffer)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.setOutput(null);
+        }
+    }
+
+    /** Mean of max-min channel spread over a coarse grid of pixels. */
+    private static boolean isGrayscale(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            return true;
+        }
+        int stepX = Math.max(1, image.getWidth() / SATURATION_SAMPLES_PER_SIDE);
+        int stepY = Math.max(1, image.getHeight() / SATURATION_SAMPLES_PER_SIDE);
+        long sum = 0;
+        int count = 0;
+        for (int y = stepY / 2; y < image.getHeight(); y += stepY) {
+            for (int x = stepX / 2; x < image.getWidth(); x += stepX) {
+                int rgb = image.getRGB(x, y);
+                int r = (rgb >> 16) & 0xFF;
+                int g = (rgb >> 8) & 0xFF;
+                int b = rgb & 0xFF;
+                sum += Math.max(r, Math.max(g, b)) - Math.min(r, Math.min(g, b));
+                count++;
+            }
+        }
+        return count > 0 && sum / count <= GRAY_MAX_MEAN_SATURATION;
+    }
+
+    private static BufferedImage toGray(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            return image;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage gray = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] out = ((DataBufferByte) gray.getRaster().getDataBuffer()).getData();
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+                int luma = (299 * ((rgb >> 16) & 0xFF) + 587 * ((rgb >> 8) & 0xFF) + 114 * (rgb & 0xFF) + 500) / 1000;
+                out[y * width + x] = (byte) luma;
+            }
+        }
+        return gray;
+    }
+
+    private static ImageWriter newWriter() {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpg");
+        return writers.hasNext() ? writers.next() : null;
+    }
+
+    /** Output stream whose backing array survives {@link #reset()}. */
+    private static final class Buffer extends ByteArrayOutputStream {
+        private static final int INITIAL_BYTES = 256 * 1024;
+        private static final int MAX_RETAINED_BYTES = 4 * 1024 * 1024;
+
+        private Buffer() {
+            super(INITIAL_BYTES);
+        }
+
+        @Override
+        public synchronized void reset() {
+            super.reset();
+            if (buf.length > MAX_RETAINED_BYTES) {
+                buf = new byte[INITIAL_BYTES];
+            }
+        }
+    }
+}
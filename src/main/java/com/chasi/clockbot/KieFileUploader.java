@@ -11,7 +11,7 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
-import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
 
 public class KieFileUploader {
     private static final String ENDPOINT = "/api/file-base64-upload";
@@ -19,21 +19,30 @@ public class KieFileUploader {
     private final HttpClient httpClient;
     private final ObjectMapper mapper;
     private final Config config;
+    private final ConcurrencyLimiter limiter;
+    private final CircuitBreaker breaker;
 
     public KieFileUploader(Config config) {
         this.config = config;
+        this.limiter = new ConcurrencyLimiter("file_upload", config.upstreamMaxConcurrency());
+        this.breaker = new CircuitBreaker("file_upload");
         this.httpClient = HttpClient.newBuilder()
             .connectTimeout(Duration.ofSeconds(20))
             .build();
         this.mapper = new ObjectMapper();
     }
 
-    public UploadResult uploadBase64(byte[] bytes, String fileName, String mimeType) {
-        String payload;
+    /**
+     * Waits for a limiter slot without holding a thread. Completes with an error result rather than
+     * exceptionally, so callers can always fall back to the Telegram URL.
+     */
+    public CompletableFuture<UploadResult> uploadBase64(byte[] bytes, String fileName, String mimeType) {
+        HttpRequest.BodyPublisher payload;
         try {
             payload = buildPayload(bytes, fileName, mimeType);
-        } catch (JsonProcessingException e) {
-            return UploadResult.error("Upload payload build failed: " + e.getMessage());
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(
+                UploadResult.error("Upload payload build failed: " + e.getMessage()));
         }
 
         HttpRequest request = HttpRequest.newBuilder()
@@ -41,35 +50,58 @@ public class KieFileUploader {
             .timeout(Duration.ofSeconds(60))
             .header("Authorization", "Bearer " + config.kieApiKey())
             .header("Content-Type", "application/json")
-            .POST(HttpRequest.BodyPublishers.ofString(payload))
+            .POST(payload)
             .build();
 
-        HttpResponse<String> response;
-        try {
-            response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            return UploadResult.error("Upload interrupted: " + e.getMessage());
-        } catch (IOException e) {
-            return UploadResult.error("Upload failed: " + e.getMessage());
-        }
-
-        if (response.statusCode() < 200 || response.statusCode() >= 300) {
-            return UploadResult.error("Upload bad status: " + response.statusCode());
+        if (!breaker.allowRequest()) {
+            return CompletableFuture.completedFuture(UploadResult.error("Upload circuit is open"));
         }
+        return limiter.acquire()
+            .thenCompose(permit -> send(request, permit))
+            .exceptionally(error -> {
+                // Only the limiter fails the future; send() turns its own failures into results.
+                breaker.onSkipped();
+                return UploadResult.error(UpstreamException.from(error).getMessage());
+            });
+    }
 
-        return parseResponse(response.body());
+    private CompletableFuture<UploadResult> send(HttpRequest request, ConcurrencyLimiter.Permit permit) {
+        long startedAt = System.currentTimeMillis();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+            .handle((response, error) -> {
+                if (error != null) {
+                    UpstreamException failure = UpstreamException.from(error);
+                    recordFailure(permit, failure, startedAt);
+                    return UploadResult.error("Upload failed: " + failure.getMessage());
+                }
+                if (response.statusCode() < 200 || response.statusCode() >= 300) {
+                    recordFailure(permit, new UpstreamException.Status(response.statusCode(), null), startedAt);
+                    return UploadResult.error("Upload bad status: " + response.statusCode());
+                }
+                breaker.onSuccess();
+                permit.release(ConcurrencyLimiter.Outcome.SUCCESS, System.currentTimeMillis() - startedAt);
+                return parseResponse(response.body());
+            });
     }
 
-    private String buildPayload(byte[] bytes, String fileName, String mimeType) throws JsonProcessingException {
-        String base64 = Base64.getEncoder().encodeToString(bytes);
-        String dataUrl = "data:" + mimeType + ";base64," + base64;
+    private void recordFailure(ConcurrencyLimiter.Permit permit, UpstreamException failure, long startedAt) {
+        if (failure.unhealthy()) {
+            breaker.onFailure();
+        } else {
+            breaker.onSuccess();
+        }
+        permit.release(failure.overload() ? ConcurrencyLimiter.Outcome.OVERLOAD : ConcurrencyLimiter.Outcome.IGNORE,
+            System.currentTimeMillis() - startedAt);
+    }
 
+    /** The image is base64-encoded while the body is sent, see {@link DataUrlBodyPublisher}. */
+    private HttpRequest.BodyPublisher buildPayload(byte[] bytes, String fileName, String mimeType)
+        throws JsonProcessingException {
         ObjectNode root = mapper.createObjectNode();
-        root.put("base64Data", dataUrl);
+        root.put("base64Data", DataUrlBodyPublisher.PLACEHOLDER);
         root.put("uploadPath", "telegram/clock-photos");
         root.put("fileName", fileName == null ? "photo.jpg" : fileName);
-        return mapper.writeValueAsString(root);
+        return DataUrlBodyPublisher.of(mapper.writeValueAsBytes(root), mimeType, bytes);
     }
 
     private UploadResult parseResponse(String body) {
@@ -0,0 +1,45 @@
+package com.chasi.clockbot;
+
+import java.util.Arrays;
+
+/**
+ * Rolling window of the latest successful call durations of one upstream endpoint. Percentiles are
+ * computed on demand from a sorted copy of the window, which is cheap at this size.
+ */
+public class LatencyTracker {
+    private static final int WINDOW = 512;
+    private static final int MIN_SAMPLES = 20;
+
+    private final long[] samples = new long[WINDOW];
+    private int count;
+    private int next;
+
+    public LatencyTracker(String endpoint) {
+        Metrics.Callback percentiles = Metrics.gauge("clockbot_upstream_latency_ms",
+            "Percentiles of recent successful upstream call durations", "endpoint", "quantile");
+        percentiles.register(() -> percentile(50), endpoint, "0.5");
+        percentiles.register(() -> percentile(90), endpoint, "0.9");
+        percentiles.register(() -> percentile(95), endpoint, "0.95");
+        percentiles.register(() -> percentile(99), endpoint, "0.99");
+    }
+
+    public synchronized void record(long durationMs) {
+        samples[next] = durationMs;
+        next = (next + 1) % WINDOW;
+        count = Math.min(WINDOW, count + 1);
+    }
+
+    /** @return the {@code percent}-th percentile in ms, or -1 while there are too few samples */
+    public long percentile(double percent) {
+        long[] sorted;
+        synchronized (this) {
+            if (count < MIN_SAMPLES) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
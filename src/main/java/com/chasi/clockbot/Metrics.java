@@ -0,0 +1,245 @@
+package com.chasi.clockbot;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide metric registry rendered in the Prometheus text format by {@link MetricsServer}.
+ * Families are created once as constants next to the code they measure.
+ */
+public final class Metrics {
+    public static final double[] LATENCY_BUCKETS_SECONDS = {
+        0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300, 600
+    };
+    public static final double[] SIZE_BUCKETS_BYTES = {
+        16_384, 65_536, 131_072, 262_144, 524_288, 1_048_576, 2_097_152, 4_194_304, 8_388_608, 16_777_216
+    };
+
+    private static final Map<String, Family> FAMILIES = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name, String help, String... labelNames) {
+        return register(new Counter(name, help, labelNames));
+    }
+
+    public static Histogram histogram(String name, String help, double[] buckets, String... labelNames) {
+        return register(new Histogram(name, help, buckets, labelNames));
+    }
+
+    /** Value read on every scrape. */
+    public static Callback gauge(String name, String help, String... labelNames) {
+        return register(new Callback(name, help, "gauge", labelNames));
+    }
+
+    /** Monotonic value owned by another component and read on every scrape. */
+    public static Callback counterCallback(String name, String help, String... labelNames) {
+        return register(new Callback(name, help, "counter", labelNames));
+    }
+
+    public static void registerJvmMetrics() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        Callback heap = gauge("jvm_memory_heap_bytes", "JVM heap memory", "area");
+        heap.register(() -> memory.getHeapMemoryUsage().getUsed(), "used");
+        heap.register(() -> memory.getHeapMemoryUsage().getCommitted(), "committed");
+        heap.register(() -> memory.getHeapMemoryUsage().getMax(), "max");
+        gauge("jvm_memory_nonheap_used_bytes", "JVM non-heap memory in use")
+            .register(() -> memory.getNonHeapMemoryUsage().getUsed());
+        gauge("jvm_threads_live", "Live JVM threads")
+            .register(() -> ManagementFactory.getThreadMXBean().getThreadCount());
+
+        Callback collections = counterCallback("jvm_gc_collections_total", "GC collections", "gc");
+        Callback collectionSeconds = counterCallback("jvm_gc_collection_seconds_total", "Time spent in GC", "gc");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections.register(gc::getCollectionCount, gc.getName());
+            collectionSeconds.register(() -> gc.getCollectionTime() / 1000.0, gc.getName());
+        }
+    }
+
+    public static String render() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Family family : FAMILIES.values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            family.render(out);
+        }
+        return out.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Family> T register(T family) {
+        Family existing = FAMILIES.putIfAbsent(family.name, family);
+        return existing == null ? family : (T) existing;
+    }
+
+    private static String labels(String[] names, String[] values, String extraName, String extraValue) {
+        if (names.length == 0 && extraName == null) {
+            return "";
+        }
+        StringBuilder out = new StringBuilder("{");
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(names[i]).append("=\"").append(escape(i < values.length ? values[i] : "")).append('"');
+        }
+        if (extraName != null) {
+            if (names.length > 0) {
+                out.append(',');
+            }
+            out.append(extraName).append("=\"").append(extraValue).append('"');
+        }
+        return out.append('}').toString();
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return String.format(Locale.ROOT, "%s", value);
+    }
+
+    private static String key(String[] labelValues) {
+        return String.join("\u0000", labelValues);
+    }
+
+    private abstract static class Family {
+        final String name;
+        final String help;
+        final String type;
+        final String[] labelNames;
+
+        Family(String name, String help, String type, String[] labelNames) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelNames = labelNames;
+        }
+
+        abstract void render(StringBuilder out);
+    }
+
+    public static final class Counter extends Family {
+        private final Map<String, Series<LongAdder>> series = new ConcurrentHashMap<>();
+
+        private Counter(String name, String help, String[] labelNames) {
+            super(name, help, "counter", labelNames);
+        }
+
+        public void inc(String... labelValues) {
+            add(1, labelValues);
+        }
+
+        public void add(long amount, String... labelValues) {
+            series.computeIfAbsent(key(labelValues), k -> new Series<>(labelValues.clone(), new LongAdder()))
+                .value().add(amount);
+        }
+
+        @Override
+        void render(StringBuilder out) {
+            for (Series<LongAdder> entry : series.values()) {
+                out.append(name).append(labels(labelNames, entry.labelValues(), null, null))
+                    .append(' ').append(entry.value().sum()).append('\n');
+            }
+        }
+    }
+
+    public static final class Histogram extends Family {
+        private final double[] buckets;
+        private final Map<String, Series<HistogramValue>> series = new ConcurrentHashMap<>();
+
+        private Histogram(String name, String help, double[] buckets, String[] labelNames) {
+            super(name, help, "histogram", labelNames);
+            this.buckets = buckets;
+        }
+
+        public void observe(double value, String... labelValues) {
+            HistogramValue histogram = series.computeIfAbsent(key(labelValues),
+                k -> new Series<>(labelValues.clone(), new HistogramValue(buckets.length))).value();
+            int index = 0;
+            while (index < buckets.length && value > buckets[index]) {
+                index++;
+            }
+            histogram.counts[index].increment();
+            histogram.sum.add(value);
+        }
+
+        @Override
+        void render(StringBuilder out) {
+            for (Series<HistogramValue> entry : series.values()) {
+                HistogramValue histogram = entry.value();
+                long cumulative = 0;
+                for (int i = 0; i <= buckets.length; i++) {
+                    cumulative += histogram.counts[i].sum();
+                    String le = i < buckets.length ? format(buckets[i]) : "+Inf";
+                    out.append(name).append("_bucket").append(labels(labelNames, entry.labelValues(), "le", le))
+                        .append(' ').append(cumulative).append('\n');
+                }
+                String seriesLabels = labels(labelNames, entry.labelValues(), null, null);
+                out.append(name).append("_sum").append(seriesLabels).append(' ')
+                    .append(format(histogram.sum.sum())).append('\n');
+                out.append(name).append("_count").append(seriesLabels).append(' ').append(cumulative).append('\n');
+            }
+        }
+    }
+
+    public static final class Callback extends Family {
+        private final List<Series<Supplier<? extends Number>>> series = new ArrayList<>();
+
+        private Callback(String name, String help, String type, String[] labelNames) {
+            super(name, help, type, labelNames);
+        }
+
+        public synchronized Callback register(Supplier<? extends Number> value, String... labelValues) {
+            series.add(new Series<>(labelValues.clone(), value));
+            return this;
+        }
+
+        @Override
+        synchronized void render(StringBuilder out) {
+            for (Series<Supplier<? extends Number>> entry : series) {
+                double value;
+                try {
+                    value = entry.value().get().doubleValue();
+                } catch (RuntimeException e) {
+                    continue;
+                }
+                out.append(name).append(labels(labelNames, entry.labelValues(), null, null))
+                    .append(' ').append(format(value)).append('\n');
+            }
+        }
+    }
+
+    private record Series<T>(String[] labelValues, T value) {
+    }
+
+    private static final class HistogramValue {
+        private final LongAdder[] counts;
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private HistogramValue(int buckets) {
+            counts = new LongAdder[buckets + 1];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.chasi.clockbot;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves {@link Metrics#render()} at {@code /metrics} using the JDK HTTP server.
+ */
+public class MetricsServer {
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private MetricsServer(HttpServer server, ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+    }
+
+    /**
+     * @return the running server, or null if {@code port} is 0 or the port cannot be bound
+     */
+    public static MetricsServer start(int port) {
+        if (port <= 0) {
+            return null;
+        }
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+            ExecutorService executor = Executors.newSingleThreadExecutor(UpdateDispatcher.namedThreads("metrics-http"));
+            server.createContext("/metrics", MetricsServer::handle);
+            server.setExecutor(executor);
+            server.start();
+            System.out.println("[MetricsServer] Listening on port " + port);
+            return new MetricsServer(server, executor);
+        } catch (IOException e) {
+            System.err.println("[MetricsServer] Failed to start on port " + port + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = Metrics.render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.chasi.clockbot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Groups items that arrive close together. A batch is handed to the consumer when it reaches
+ * {@code maxSize} items, on the adding thread, or {@code windowMs} after its first item, on the shared
+ * delayed executor; the consumer must therefore not block.
+ */
+public class MicroBatcher<T> {
+    private final long windowMs;
+    private final int maxSize;
+    private final Consumer<List<T>> consumer;
+    private List<T> pending = new ArrayList<>();
+    private long generation;
+
+    public MicroBatcher(long windowMs, int maxSize, Consumer<List<T>> consumer) {
+        this.windowMs = windowMs;
+        this.maxSize = maxSize;
+        this.consumer = consumer;
+    }
+
+    public void add(T item) {
+        List<T> full = null;
+        synchronized (this) {
+            pending.add(item);
+            if (pending.size() >= maxSize) {
+                full = take();
+            } else if (pending.size() == 1) {
+                long batch = generation;
+                CompletableFuture.delayedExecutor(windowMs, TimeUnit.MILLISECONDS).execute(() -> expire(batch));
+            }
+        }
+        if (full != null) {
+            consumer.accept(full);
+        }
+    }
+
+    private void expire(long batch) {
+        List<T> items;
+        synchronized (this) {
+            if (batch != generation || pending.isEmpty()) {
+                return;
+            }
+            items = take();
+        }
+        consumer.accept(items);
+    }
+
+    private List<T> take() {
+        List<T> items = pending;
+        pending = new ArrayList<>();
+        generation++;
+        return items;
+    }
+}
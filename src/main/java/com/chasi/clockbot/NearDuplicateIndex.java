@@ -0,0 +1,164 @@
+package com.chasi.clockbot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BK-tree over perceptual hashes of recently answered images. A lookup returns the result of the
+ * closest image from the same chat within {@code maxDistance} hash bits whose thumbnail differs in at
+ * most {@code maxChangedCells} cells and that was added during the last {@code windowMillis}. Another
+ * chat's photo of a similar clock may show a different time, so answers are never shared across chats.
+ */
+public class NearDuplicateIndex {
+    private static final int MAX_ENTRIES = 5_000;
+
+    private final int maxDistance;
+    private final int maxChangedCells;
+    private final long windowMillis;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private Node root;
+    private int size;
+
+    public NearDuplicateIndex(int maxDistance, int maxChangedCells, long windowMillis) {
+        this.maxDistance = maxDistance;
+        this.maxChangedCells = maxChangedCells;
+        this.windowMillis = windowMillis;
+    }
+
+    public boolean enabled() {
+        return windowMillis > 0;
+    }
+
+    public GeminiResult find(long chatId, ImageFingerprint fingerprint) {
+        if (fingerprint == null || !enabled()) {
+            return null;
+        }
+        Match match;
+        synchronized (this) {
+            match = search(chatId, fingerprint, System.currentTimeMillis() - windowMillis);
+        }
+        if (match == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        System.out.println("[NearDuplicateIndex] Hit at distance " + match.distance()
+            + ", changed cells " + match.changedCells() + " (hits=" + hits.get() + ", misses=" + misses.get() + ")");
+        return GeminiResult.cached(match.node().result.time(), match.node().result.rawContent());
+    }
+
+    /** Adds a recognized time; errors and UNKNOWN answers are ignored. */
+    public synchronized void add(long chatId, ImageFingerprint fingerprint, GeminiResult result) {
+        if (fingerprint == null || !enabled() || result == null
+            || !"ok".equals(result.status()) || "UNKNOWN".equals(result.time())) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (size >= MAX_ENTRIES) {
+            prune(now - windowMillis);
+        }
+        insert(new Node(chatId, fingerprint, result, now));
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private Match search(long chatId, ImageFingerprint fingerprint, long notBefore) {
+        if (root == null) {
+            return null;
+        }
+        Match best = null;
+        List<Node> stack = new ArrayList<>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.remove(stack.size() - 1);
+            int distance = PerceptualHash.distance(fingerprint.hash(), node.fingerprint.hash());
+            if (distance <= maxDistance && node.createdAt >= notBefore && node.chatId == chatId) {
+                int changedCells = PerceptualHash.changedCells(fingerprint.thumbnail(), node.fingerprint.thumbnail());
+                if (changedCells <= maxChangedCells && (best == null || changedCells < best.changedCells())) {
+                    best = new Match(node, distance, changedCells);
+                }
+            }
+            for (Map.Entry<Integer, Node> child : node.children.entrySet()) {
+                if (Math.abs(child.getKey() - distance) <= maxDistance) {
+                    stack.add(child.getValue());
+                }
+            }
+        }
+        return best;
+    }
+
+    private void insert(Node node) {
+        size++;
+        if (root == null) {
+            root = node;
+            return;
+        }
+        Node current = root;
+        while (true) {
+            int distance = PerceptualHash.distance(node.fingerprint.hash(), current.fingerprint.hash());
+            Node child = current.children.get(distance);
+            if (child == null) {
+                current.children.put(distance, node);
+                return;
+            }
+            current = child;
+        }
+    }
+
+    /** BK-trees do not support removal, so expired entries are dropped by rebuilding the tree. */
+    private void prune(long notBefore) {
+        List<Node> live = new ArrayList<>();
+        List<Node> stack = new ArrayList<>();
+        if (root != null) {
+            stack.add(root);
+        }
+        while (!stack.isEmpty()) {
+            Node node = stack.remove(stack.size() - 1);
+            stack.addAll(node.children.values());
+            if (node.createdAt >= notBefore) {
+                live.add(new Node(node.chatId, node.fingerprint, node.result, node.createdAt));
+            }
+        }
+        if (live.size() >= MAX_ENTRIES) {
+            live.sort((a, b) -> Long.compare(a.createdAt, b.createdAt));
+            live = new ArrayList<>(live.subList(live.size() - MAX_ENTRIES / 2, live.size()));
+        }
+        root = null;
+        size = 0;
+        for (Node node : live) {
+            insert(node);
+        }
+    }
+
+    private static final class Node {
+        private final long chatId;
+        private final ImageFingerprint fingerprint;
+        private final GeminiResult result;
+        private final long createdAt;
+        private final Map<Integer, Node> children = new HashMap<>();
+
+        private Node(long chatId, ImageFingerprint fingerprint, GeminiResult result, long createdAt) {
+            this.chatId = chatId;
+            this.fingerprint = fingerprint;
+            this.result = result;
+            this.createdAt = createdAt;
+        }
+    }
+
+    private record Match(Node node, int distance, int changedCells) {
+    }
+}
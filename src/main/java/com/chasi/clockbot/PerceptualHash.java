@@ -0,0 +1,96 @@
+package com.chasi.clockbot;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Perceptual fingerprints for near-duplicate detection.
+ *
+ * <p>The 64-bit difference hash (9x8 grid, one bit per brighter-than-right-neighbour cell) survives
+ * recompression and resizing but barely notices a moved clock hand, so it is only used to find
+ * candidates. Candidates are confirmed by comparing 32x32 grayscale thumbnails cell by cell.
+ */
+public class PerceptualHash {
+    private static final int HASH_GRID_WIDTH = 9;
+    private static final int HASH_GRID_HEIGHT = 8;
+    private static final int THUMBNAIL_SIZE = 32;
+    private static final int CHANGED_CELL_DELTA = 24;
+    private static final int SAMPLES_PER_CELL_SIDE = 8;
+
+    public static ImageFingerprint fingerprint(BufferedImage image) {
+        return new ImageFingerprint(dHash(image), thumbnail(image));
+    }
+
+    public static long dHash(BufferedImage image) {
+        double[][] grid = lumaGrid(image, HASH_GRID_WIDTH, HASH_GRID_HEIGHT);
+        long hash = 0;
+        for (int y = 0; y < HASH_GRID_HEIGHT; y++) {
+            for (int x = 0; x < HASH_GRID_WIDTH - 1; x++) {
+                hash <<= 1;
+                if (grid[y][x] > grid[y][x + 1]) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    public static int distance(long first, long second) {
+        return Long.bitCount(first ^ second);
+    }
+
+    /** Number of thumbnail cells whose brightness differs noticeably. */
+    public static int changedCells(byte[] first, byte[] second) {
+        if (first.length != second.length) {
+            return first.length;
+        }
+        int changed = 0;
+        for (int i = 0; i < first.length; i++) {
+            if (Math.abs((first[i] & 0xFF) - (second[i] & 0xFF)) > CHANGED_CELL_DELTA) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    private static byte[] thumbnail(BufferedImage image) {
+        double[][] grid = lumaGrid(image, THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+        byte[] thumbnail = new byte[THUMBNAIL_SIZE * THUMBNAIL_SIZE];
+        for (int y = 0; y < THUMBNAIL_SIZE; y++) {
+            for (int x = 0; x < THUMBNAIL_SIZE; x++) {
+                thumbnail[y * THUMBNAIL_SIZE + x] = (byte) Math.round(grid[y][x]);
+            }
+        }
+        return thumbnail;
+    }
+
+    private static double[][] lumaGrid(BufferedImage image, int gridWidth, int gridHeight) {
+        double[][] grid = new double[gridHeight][gridWidth];
+        int width = image.getWidth();
+        int height = image.getHeight();
+        for (int cy = 0; cy < gridHeight; cy++) {
+            int y0 = cy * height / gridHeight;
+            int y1 = Math.max(y0 + 1, (cy + 1) * height / gridHeight);
+            for (int cx = 0; cx < gridWidth; cx++) {
+                int x0 = cx * width / gridWidth;
+                int x1 = Math.max(x0 + 1, (cx + 1) * width / gridWidth);
+                grid[cy][cx] = averageLuma(image, x0, y0, x1, y1);
+            }
+        }
+        return grid;
+    }
+
+    private static double averageLuma(BufferedImage image, int x0, int y0, int x1, int y1) {
+        int stepX = Math.max(1, (x1 - x0) / SAMPLES_PER_CELL_SIDE);
+        int stepY = Math.max(1, (y1 - y0) / SAMPLES_PER_CELL_SIDE);
+        double sum = 0;
+        int count = 0;
+        for (int y = y0; y < y1; y += stepY) {
+            for (int x = x0; x < x1; x += stepX) {
+                int rgb = image.getRGB(x, y);
+                sum += 0.299 * ((rgb >> 16) & 0xFF) + 0.587 * ((rgb >> 8) & 0xFF) + 0.114 * (rgb & 0xFF);
+                count++;
+            }
+        }
+        return count == 0 ? 0 : sum / count;
+    }
+}
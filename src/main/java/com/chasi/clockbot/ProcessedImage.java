@@ -1,4 +1,28 @@
 package com.chasi.clockbot;
 
-public record ProcessedImage(byte[] bytes, String fileName) {
+/**
+ * @param bytes        image to send to the model, null if only the Telegram URL can be used
+ * @param fingerprint  perceptual fingerprint of the located clock, null if no clock was located
+ * @param luma         small grayscale copy for the local recognition stages, null if it could not be decoded
+ * @param dial         dial found while locating the clock, null if none was found or the crop is off
+ * @param originalSize number of bytes read from the source
+ * @param rejection    reason the image must not be sent to the model at all, null if it is usable
+ */
+public record ProcessedImage(byte[] bytes,
+                             String fileName,
+                             ImageFingerprint fingerprint,
+                             GrayImage luma,
+                             DialDetector.Dial dial,
+                             long originalSize,
+                             String rejection) {
+    public static final String REJECTED_TOO_LARGE = "too_large";
+    public static final String REJECTED_NOT_IMAGE = "not_image";
+    public static final String REJECTED_TOO_SMALL = "too_small";
+    public static final String REJECTED_LOW_CONTRAST = "low_contrast";
+    public static final String REJECTED_BLURRY = "blurry";
+    public static final String REJECTED_NO_CLOCK = "no_clock";
+
+    public static ProcessedImage rejected(String reason, long originalSize) {
+        return new ProcessedImage(null, null, null, null, null, originalSize, reason);
+    }
 }
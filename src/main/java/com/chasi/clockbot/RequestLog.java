@@ -1,10 +1,14 @@
 package com.chasi.clockbot;
 
+import java.util.List;
+
 public record RequestLog(Long userId,
                          String username,
                          String fileId,
                          String imageUrl,
                          String resultTime,
                          String status,
-                         String errorMessage) {
+                         String errorMessage,
+                         String traceId,
+                         List<TraceSpan> spans) {
 }
@@ -0,0 +1,147 @@
+package com.chasi.clockbot;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Two-tier cache of recognized times: an in-memory LRU in front of the {@code result_cache} table.
+ * Keys are either the Telegram {@code file_unique_id} or a SHA-256 of the preprocessed image, and
+ * concurrent loads of the same key share one upstream call.
+ */
+public class ResultCache {
+    private final Database database;
+    private final long ttlMillis;
+    private final Map<String, Entry> memory;
+    private final ConcurrentHashMap<String, CompletableFuture<GeminiResult>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public ResultCache(Database database, long ttlMillis, int maxEntries) {
+        this.database = database;
+        this.ttlMillis = ttlMillis;
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        database.purgeCachedResults(System.currentTimeMillis() - ttlMillis);
+    }
+
+    public static String fileKey(String fileUniqueId) {
+        return fileUniqueId == null || fileUniqueId.isBlank() ? null : "file:" + fileUniqueId;
+    }
+
+    public static String contentKey(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return "sha256:" + HexFormat.of().formatHex(digest.digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the cached result marked as {@code cached}, or null on a miss
+     */
+    public GeminiResult get(String key) {
+        if (key == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Entry entry;
+        synchronized (memory) {
+            entry = memory.get(key);
+            if (entry != null && now - entry.createdAt() > ttlMillis) {
+                memory.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            GeminiResult stored = database.findCachedResult(key, now - ttlMillis);
+            if (stored != null) {
+                entry = new Entry(stored, now);
+                synchronized (memory) {
+                    memory.put(key, entry);
+                }
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return GeminiResult.cached(entry.result().time(), entry.result().rawContent());
+    }
+
+    /**
+     * Runs {@code loader} unless a load of the same key is already in flight, in which case the caller
+     * joins that load. Successful results are stored under {@code key}.
+     */
+    public CompletableFuture<GeminiResult> load(String key, Supplier<CompletableFuture<GeminiResult>> loader) {
+        CompletableFuture<GeminiResult> created = new CompletableFuture<>();
+        CompletableFuture<GeminiResult> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return existing;
+        }
+
+        CompletableFuture<GeminiResult> loading;
+        try {
+            loading = loader.get();
+        } catch (RuntimeException e) {
+            loading = CompletableFuture.failedFuture(e);
+        }
+        loading.whenComplete((result, error) -> {
+            if (error == null) {
+                put(key, result);
+            }
+            inFlight.remove(key, created);
+            if (error != null) {
+                created.completeExceptionally(error);
+            } else {
+                created.complete(result);
+            }
+        });
+        return created;
+    }
+
+    /** Stores a recognized time; errors and UNKNOWN answers are not cached. */
+    public void put(String key, GeminiResult result) {
+        if (key == null || result == null || "UNKNOWN".equals(result.time())
+            || !("ok".equals(result.status()) || "cached".equals(result.status()))) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (memory) {
+            memory.put(key, new Entry(result, now));
+        }
+        database.saveCachedResult(key, result, now);
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long coalesced() {
+        return coalesced.get();
+    }
+
+    private record Entry(GeminiResult result, long createdAt) {
+    }
+}
@@ -0,0 +1,42 @@
+package com.chasi.clockbot;
+
+/**
+ * Token bucket shared by all retries. Every first attempt deposits {@code ratio} tokens and a small
+ * trickle refills over time, so retries stay a fixed share of traffic while the upstream is failing.
+ * A separate instance caps hedged requests the same way.
+ */
+public class RetryBudget {
+    private static final double MIN_RETRIES_PER_SECOND = 0.1;
+    private static final double MAX_BALANCE = 20.0;
+
+    private final double ratio;
+    private double balance;
+    private long lastRefillNanos;
+
+    public RetryBudget(double ratio) {
+        this.ratio = ratio;
+        this.balance = MAX_BALANCE / 2;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public synchronized void recordRequest() {
+        refill();
+        balance = Math.min(MAX_BALANCE, balance + ratio);
+    }
+
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (balance < 1.0) {
+            return false;
+        }
+        balance -= 1.0;
+        return true;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double seconds = (now - lastRefillNanos) / 1_000_000_000.0;
+        lastRefillNanos = now;
+        balance = Math.min(MAX_BALANCE, balance + seconds * MIN_RETRIES_PER_SECOND);
+    }
+}
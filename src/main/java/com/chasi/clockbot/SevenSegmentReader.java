@@ -0,0 +1,510 @@
+package com.chasi.clockbot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Reads HH:MM from a seven-segment display without calling the model. The photo is binarized against
+ * its local mean in both polarities, since LED displays are light on dark and LCDs dark on light.
+ * Segments are grouped into digit boxes by their horizontal overlap, and a row of three, four or six
+ * boxes of similar height is taken as the display. Every box is then sampled at the seven segment
+ * positions, also under a few slants for italic displays. The confidence is the weakest segment
+ * decision of the row, scaled down when the digit heights disagree.
+ */
+public final class SevenSegmentReader {
+    /**
+     * @param digits the decoded digits in display order, e.g. {@code 0945}
+     * @param bounds {minX, minY, maxX, maxY} of the decoded digits
+     */
+    public record Reading(String time, double confidence, String digits, boolean darkOnLight, int[] bounds) {
+        public String describe() {
+            return String.format(Locale.ROOT, "%s %s confidence=%.2f", digits,
+                darkOnLight ? "dark-on-light" : "light-on-dark", confidence);
+        }
+    }
+
+    private static final int MIN_DIGIT_HEIGHT = 12;
+    private static final int MIN_COMPONENT_AREA = 6;
+    /** Segments and whole digits are solid; bezels, dial rings and outlines around the digits are not. */
+    private static final double MIN_COMPONENT_FILL = 0.15;
+    /**
+     * A one is a single stroke. A narrow box wider than this share of its height is rather the hole inside
+     * a digit, which the opposite polarity turns into foreground.
+     */
+    private static final double MAX_ONE_WIDTH = 0.3;
+    private static final int MAX_COMPONENTS = 4000;
+    private static final int THRESHOLD_OFFSET = 12;
+    private static final double[] SHEARS = {0, 0.08, 0.16, 0.24};
+
+    /** Sampling regions {u0, u1, v0, v1} of segments a to g, as fractions of the digit box. */
+    private static final double[][] SEGMENTS = {
+        {0.25, 0.75, 0.00, 0.15},
+        {0.72, 1.00, 0.12, 0.45},
+        {0.72, 1.00, 0.55, 0.88},
+        {0.25, 0.75, 0.85, 1.00},
+        {0.00, 0.28, 0.55, 0.88},
+        {0.00, 0.28, 0.12, 0.45},
+        {0.25, 0.75, 0.42, 0.58},
+    };
+
+    /** Digit by segment mask, bit 0 for segment a up to bit 6 for g; -1 for no digit. */
+    private static final int[] DIGITS = new int[128];
+
+    static {
+        Arrays.fill(DIGITS, -1);
+        DIGITS[0x3F] = 0;
+        DIGITS[0x06] = 1;
+        DIGITS[0x5B] = 2;
+        DIGITS[0x4F] = 3;
+        DIGITS[0x66] = 4;
+        DIGITS[0x6D] = 5;
+        DIGITS[0x7D] = 6;
+        DIGITS[0x7C] = 6;
+        DIGITS[0x07] = 7;
+        DIGITS[0x27] = 7;
+        DIGITS[0x7F] = 8;
+        DIGITS[0x6F] = 9;
+        DIGITS[0x67] = 9;
+    }
+
+    private SevenSegmentReader() {
+    }
+
+    /** @return the most confident reading, or null if no row of digits decodes to a valid time */
+    public static Reading read(GrayImage image) {
+        if (image == null || Math.min(image.width(), image.height()) < MIN_DIGIT_HEIGHT) {
+            return null;
+        }
+        long[] integral = integral(image);
+        Reading best = null;
+        for (int radius : windowRadii(image)) {
+            for (boolean darkOnLight : new boolean[] {false, true}) {
+                Mask mask = binarize(image, integral, radius, darkOnLight);
+                Reading reading = readMask(mask, darkOnLight);
+                if (reading != null && (best == null || reading.confidence() > best.confidence())) {
+                    best = reading;
+                }
+            }
+        }
+        return best;
+    }
+
+    /** @return whether the photo shows at least two digit-shaped boxes side by side, readable or not */
+    public static boolean hasDigitRow(GrayImage image) {
+        if (image == null || Math.min(image.width(), image.height()) < MIN_DIGIT_HEIGHT) {
+            return false;
+        }
+        long[] integral = integral(image);
+        for (int radius : windowRadii(image)) {
+            for (boolean darkOnLight : new boolean[] {false, true}) {
+                List<Box> candidates = candidates(binarize(image, integral, radius, darkOnLight));
+                for (int start = 0; candidates != null && start < candidates.size(); start++) {
+                    if (row(candidates, start).size() >= 2) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /** A small window suits small displays in a wide shot, a large one displays that fill the frame. */
+    private static int[] windowRadii(GrayImage image) {
+        int shortSide = Math.min(image.width(), image.height());
+        return new int[] {Math.max(8, shortSide / 8), Math.max(8, shortSide / 3)};
+    }
+
+    private static Reading readMask(Mask mask, boolean darkOnLight) {
+        List<Box> candidates = candidates(mask);
+        if (candidates == null) {
+            return null;
+        }
+
+        Reading best = null;
+        Set<Box> inRow = new HashSet<>();
+        for (int start = 0; start < candidates.size(); start++) {
+            if (inRow.contains(candidates.get(start))) {
+                continue;
+            }
+            List<Box> row = row(candidates, start);
+            inRow.addAll(row);
+            if (row.size() != 3 && row.size() != 4 && row.size() != 6 || truncated(candidates, row)) {
+                continue;
+            }
+            for (double shear : SHEARS) {
+                Reading reading = decodeRow(mask, row, shear, darkOnLight);
+                if (reading != null && (best == null || reading.confidence() > best.confidence())) {
+                    best = reading;
+                }
+            }
+        }
+        return best;
+    }
+
+    /** @return digit-shaped boxes from left to right, or null if the mask is too noisy to group */
+    private static List<Box> candidates(Mask mask) {
+        List<Box> components = components(mask);
+        if (components == null) {
+            return null;
+        }
+        List<Box> candidates = new ArrayList<>();
+        for (Box box : mergeSegments(components)) {
+            int height = box.height();
+            if (height >= MIN_DIGIT_HEIGHT && height <= mask.height * 0.95 && height >= box.width() * 1.1) {
+                candidates.add(box);
+            }
+        }
+        candidates.sort(Comparator.comparingInt(box -> box.minX));
+        return candidates;
+    }
+
+    /**
+     * Boxes following {@code candidates[start]} at the same height and baseline, left to right. Boxes
+     * already in a row are not used to start another, so the tail of {@code 12:34} is never read as 2:34.
+     */
+    private static List<Box> row(List<Box> candidates, int start) {
+        Box first = candidates.get(start);
+        double height = first.height();
+        double centerY = (first.minY + first.maxY) / 2.0;
+        List<Box> row = new ArrayList<>();
+        row.add(first);
+        Box last = first;
+        for (int i = start + 1; i < candidates.size() && row.size() < 6; i++) {
+            Box box = candidates.get(i);
+            double gap = box.minX - last.maxX;
+            if (gap > 1.2 * height) {
+                break;
+            }
+            boolean sameSize = Math.abs(box.height() - height) <= 0.2 * height;
+            boolean sameLine = Math.abs((box.minY + box.maxY) / 2.0 - centerY) <= 0.25 * height;
+            if (sameSize && sameLine && gap >= -0.1 * height) {
+                row.add(box);
+                last = box;
+            }
+        }
+        return row;
+    }
+
+    /**
+     * A first digit that touches the bezel or a neighbouring mark merges into a taller box and drops out of
+     * its row, which would then read {@code 22:29} as 2:29. Such a box still spans the digits' height, one
+     * digit gap before the row, and the row is skipped when one does.
+     */
+    private static boolean truncated(List<Box> candidates, List<Box> row) {
+        Box first = row.get(0);
+        int height = first.height();
+        for (Box box : candidates) {
+            if (box.maxX < first.minX && first.minX - box.maxX <= 0.5 * height
+                && box.minY <= first.minY + 0.25 * height && box.maxY >= first.maxY - 0.25 * height) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Reading decodeRow(Mask mask, List<Box> row, double shear, boolean darkOnLight) {
+        StringBuilder digits = new StringBuilder();
+        double confidence = 1.0;
+        int minHeight = Integer.MAX_VALUE;
+        int maxHeight = 0;
+        for (Box box : row) {
+            double[] digit = decodeDigit(mask, box, shear);
+            if (digit == null) {
+                return null;
+            }
+            digits.append((int) digit[0]);
+            confidence = Math.min(confidence, digit[1]);
+            minHeight = Math.min(minHeight, box.height());
+            maxHeight = Math.max(maxHeight, box.height());
+        }
+        confidence *= 1.0 - (double) (maxHeight - minHeight) / maxHeight;
+        // Thin strokes of anything read as ones, and a display with a leading zero never hides it.
+        if (digits.chars().allMatch(c -> c == '1') || (digits.length() == 3 && digits.charAt(0) == '0')) {
+            return null;
+        }
+
+        String hours = digits.length() == 3 ? digits.substring(0, 1) : digits.substring(0, 2);
+        String minutes = digits.length() == 3 ? digits.substring(1, 3) : digits.substring(2, 4);
+        String time = TimeNormalizer.normalize(hours + ":" + minutes);
+        if ("UNKNOWN".equals(time)) {
+            return null;
+        }
+        Box first = row.get(0);
+        Box last = row.get(row.size() - 1);
+        int[] bounds = {first.minX, Integer.MAX_VALUE, last.maxX, 0};
+        for (Box box : row) {
+            bounds[1] = Math.min(bounds[1], box.minY);
+            bounds[3] = Math.max(bounds[3], box.maxY);
+        }
+        return new Reading(time, confidence, digits.toString(), darkOnLight, bounds);
+    }
+
+    /**
+     * @return {digit, certainty}, or null if the box does not show a digit; a box narrower than half its
+     *         height can only be a one, and only if it is as thin as a stroke
+     */
+    private static double[] decodeDigit(Mask mask, Box box, double shear) {
+        int height = box.height();
+        double offset = shear * height;
+        double width = box.width() - offset;
+        if (width < 2) {
+            return null;
+        }
+        if (width < 0.45 * height) {
+            if (width > MAX_ONE_WIDTH * height) {
+                return null;
+            }
+            double fill = fill(mask, box, offset, width, 0, 1, 0, 1);
+            double certainty = clamp((fill - 0.4) / 0.3);
+            return certainty > 0 ? new double[] {1, certainty} : null;
+        }
+
+        double[] fills = new double[SEGMENTS.length];
+        double maxFill = 0;
+        for (int i = 0; i < SEGMENTS.length; i++) {
+            double[] region = SEGMENTS[i];
+            fills[i] = fill(mask, box, offset, width, region[0], region[1], region[2], region[3]);
+            maxFill = Math.max(maxFill, fills[i]);
+        }
+        if (maxFill < 0.35) {
+            return null;
+        }
+        double threshold = maxFill / 2;
+        int segments = 0;
+        double certainty = 1.0;
+        for (int i = 0; i < fills.length; i++) {
+            if (fills[i] >= threshold) {
+                segments |= 1 << i;
+            }
+            certainty = Math.min(certainty, clamp(Math.abs(fills[i] - threshold) / (0.5 * threshold)));
+        }
+        int digit = DIGITS[segments];
+        return digit < 0 ? null : new double[] {digit, certainty};
+    }
+
+    /** Share of foreground samples in a region of the box, with the top shifted right by {@code offset}. */
+    private static double fill(Mask mask, Box box, double offset, double width,
+                               double u0, double u1, double v0, double v1) {
+        int height = box.height();
+        int columns = (int) Math.max(2, Math.min(12, Math.round((u1 - u0) * width)));
+        int rows = (int) Math.max(2, Math.min(12, Math.round((v1 - v0) * height)));
+        int hits = 0;
+        for (int row = 0; row < rows; row++) {
+            double v = v0 + (v1 - v0) * (row + 0.5) / rows;
+            int y = (int) (box.minY + v * height);
+            for (int column = 0; column < columns; column++) {
+                double u = u0 + (u1 - u0) * (column + 0.5) / columns;
+                int x = (int) (box.minX + u * width + offset * (1 - v));
+                if (mask.get(x, y)) {
+                    hits++;
+                }
+            }
+        }
+        return (double) hits / (rows * columns);
+    }
+
+    private static long[] integral(GrayImage image) {
+        int width = image.width();
+        long[] sums = new long[(width + 1) * (image.height() + 1)];
+        for (int y = 0; y < image.height(); y++) {
+            long row = 0;
+            for (int x = 0; x < width; x++) {
+                row += image.get(x, y);
+                sums[(y + 1) * (width + 1) + x + 1] = sums[y * (width + 1) + x + 1] + row;
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * Foreground is what differs from the mean of the surrounding window, so an unevenly lit display still
+     * separates from its surroundings. A small window suits small displays in a wide shot; when the display
+     * fills the frame it would be filled by a single digit, so a larger one is tried as well.
+     */
+    private static Mask binarize(GrayImage image, long[] integral, int radius, boolean darkOnLight) {
+        int width = image.width();
+        int height = image.height();
+        boolean[] pixels = new boolean[width * height];
+        for (int y = 0; y < height; y++) {
+            int y0 = Math.max(0, y - radius);
+            int y1 = Math.min(height, y + radius + 1);
+            for (int x = 0; x < width; x++) {
+                int x0 = Math.max(0, x - radius);
+                int x1 = Math.min(width, x + radius + 1);
+                long sum = integral[y1 * (width + 1) + x1] - integral[y0 * (width + 1) + x1]
+                    - integral[y1 * (width + 1) + x0] + integral[y0 * (width + 1) + x0];
+                double mean = (double) sum / ((long) (x1 - x0) * (y1 - y0));
+                int value = image.get(x, y);
+                pixels[y * width + x] = darkOnLight
+                    ? value < mean - THRESHOLD_OFFSET
+                    : value > mean + THRESHOLD_OFFSET;
+            }
+        }
+        return new Mask(width, height, pixels);
+    }
+
+    /**
+     * @return bounding boxes of solid 4-connected foreground regions, or null if the image is too busy
+     */
+    private static List<Box> components(Mask mask) {
+        int width = mask.width;
+        boolean[] visited = new boolean[mask.pixels.length];
+        int[] stack = new int[mask.pixels.length];
+        List<Box> boxes = new ArrayList<>();
+        for (int start = 0; start < mask.pixels.length; start++) {
+            if (!mask.pixels[start] || visited[start]) {
+                continue;
+            }
+            Box box = new Box(start % width, start / width);
+            int size = 0;
+            stack[size++] = start;
+            visited[start] = true;
+            while (size > 0) {
+                int index = stack[--size];
+                int x = index % width;
+                int y = index / width;
+                box.add(x, y);
+                if (x > 0 && mask.pixels[index - 1] && !visited[index - 1]) {
+                    visited[index - 1] = true;
+                    stack[size++] = index - 1;
+                }
+                if (x < width - 1 && mask.pixels[index + 1] && !visited[index + 1]) {
+                    visited[index + 1] = true;
+                    stack[size++] = index + 1;
+                }
+                if (y > 0 && mask.pixels[index - width] && !visited[index - width]) {
+                    visited[index - width] = true;
+                    stack[size++] = index - width;
+                }
+                if (y < mask.height - 1 && mask.pixels[index + width] && !visited[index + width]) {
+                    visited[index + width] = true;
+                    stack[size++] = index + width;
+                }
+            }
+            if (box.area >= MIN_COMPONENT_AREA && box.area >= MIN_COMPONENT_FILL * box.width() * box.height()) {
+                boxes.add(box);
+                if (boxes.size() > MAX_COMPONENTS) {
+                    return null;
+                }
+            }
+        }
+        return boxes;
+    }
+
+    /**
+     * Segments of one digit overlap horizontally and are stacked close together, while neighbouring
+     * digits do not overlap at all; merging on that rule turns segments into digit boxes. A region that
+     * encloses another, like a display panel around its digits, and specks much smaller than their
+     * neighbour are never merged.
+     */
+    private static List<Box> mergeSegments(List<Box> components) {
+        components.sort(Comparator.comparingInt(box -> box.minX));
+        int[] parent = new int[components.size()];
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        for (int i = 0; i < components.size(); i++) {
+            Box a = components.get(i);
+            for (int j = i + 1; j < components.size() && components.get(j).minX <= a.maxX; j++) {
+                Box b = components.get(j);
+                int overlap = Math.min(a.maxX, b.maxX) - Math.max(a.minX, b.minX) + 1;
+                int gap = Math.max(a.minY, b.minY) - Math.min(a.maxY, b.maxY) - 1;
+                if (overlap >= 0.5 * Math.min(a.width(), b.width()) && gap <= Math.max(a.height(), b.height())
+                    && comparable(a, b) && !a.contains(b) && !b.contains(a)) {
+                    parent[find(parent, i)] = find(parent, j);
+                }
+            }
+        }
+        Box[] merged = new Box[components.size()];
+        List<Box> result = new ArrayList<>();
+        for (int i = 0; i < components.size(); i++) {
+            int root = find(parent, i);
+            if (merged[root] == null) {
+                merged[root] = new Box(components.get(i));
+                result.add(merged[root]);
+            } else {
+                merged[root].add(components.get(i));
+            }
+        }
+        return result;
+    }
+
+    /** A segment is at least a quarter as long as the rest of its digit; specks of noise are not. */
+    private static boolean comparable(Box a, Box b) {
+        int sizeA = Math.max(a.width(), a.height());
+        int sizeB = Math.max(b.width(), b.height());
+        return Math.min(sizeA, sizeB) >= 0.25 * Math.max(sizeA, sizeB);
+    }
+
+    private static int find(int[] parent, int index) {
+        while (parent[index] != index) {
+            parent[index] = parent[parent[index]];
+            index = parent[index];
+        }
+        return index;
+    }
+
+    private static double clamp(double value) {
+        return Math.max(0, Math.min(1, value));
+    }
+
+    private record Mask(int width, int height, boolean[] pixels) {
+        boolean get(int x, int y) {
+            return x >= 0 && y >= 0 && x < width && y < height && pixels[y * width + x];
+        }
+    }
+
+    private static final class Box {
+        private int minX;
+        private int minY;
+        private int maxX;
+        private int maxY;
+        private int area;
+
+        private Box(int x, int y) {
+            minX = maxX = x;
+            minY = maxY = y;
+        }
+
+        private Box(Box other) {
+            minX = other.minX;
+            minY = other.minY;
+            maxX = other.maxX;
+            maxY = other.maxY;
+            area = other.area;
+        }
+
+        void add(int x, int y) {
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+            area++;
+        }
+
+        void add(Box other) {
+            minX = Math.min(minX, other.minX);
+            minY = Math.min(minY, other.minY);
+            maxX = Math.max(maxX, other.maxX);
+            maxY = Math.max(maxY, other.maxY);
+            area += other.area;
+        }
+
+        boolean contains(Box other) {
+            return minX <= other.minX && minY <= other.minY && maxX >= other.maxX && maxY >= other.maxY;
+        }
+
+        int width() {
+            return maxX - minX + 1;
+        }
+
+        int height() {
+            return maxY - minY + 1;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.chasi.clockbot;
+
+import com.pengrad.telegrambot.Callback;
+import com.pengrad.telegrambot.TelegramBot;
+import com.pengrad.telegrambot.request.BaseRequest;
+import com.pengrad.telegrambot.response.BaseResponse;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Futures over the callback API of {@link TelegramBot}. Responses complete on the HTTP client's
+ * threads, so anything heavier than bookkeeping must continue on another executor.
+ */
+public final class TelegramAsync {
+    private TelegramAsync() {
+    }
+
+    public static <T extends BaseRequest<T, R>, R extends BaseResponse> CompletableFuture<R> execute(
+        TelegramBot bot, T request) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        try {
+            bot.execute(request, new Callback<T, R>() {
+                @Override
+                public void onResponse(T ignored, R response) {
+                    future.complete(response);
+                }
+
+                @Override
+                public void onFailure(T ignored, IOException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
@@ -0,0 +1,93 @@
+package com.chasi.clockbot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Timing of one update through the pipeline. Spans may be ended from any thread.
+ */
+public class Trace {
+    private static final Metrics.Histogram STAGE_SECONDS = Metrics.histogram("clockbot_stage_duration_seconds",
+        "Duration of request pipeline stages", Metrics.LATENCY_BUCKETS_SECONDS, "stage");
+
+    private final String id;
+    private final List<TraceSpan> spans = new ArrayList<>();
+
+    private Trace(String id) {
+        this.id = id;
+    }
+
+    public static Trace forUpdate(Integer updateId) {
+        int suffix = ThreadLocalRandom.current().nextInt();
+        return new Trace(String.format("%s-%08x", updateId == null ? "0" : updateId.toString(), suffix));
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public Span span(String name) {
+        return new Span(name);
+    }
+
+    public synchronized List<TraceSpan> spans() {
+        return List.copyOf(spans);
+    }
+
+    private synchronized void add(TraceSpan span) {
+        spans.add(span);
+    }
+
+    /** Folds numbered spans such as {@code gemini_attempt_2} into one metric label. */
+    private static String stageName(String spanName) {
+        int end = spanName.length();
+        while (end > 0 && Character.isDigit(spanName.charAt(end - 1))) {
+            end--;
+        }
+        if (end < spanName.length() && end > 0 && spanName.charAt(end - 1) == '_') {
+            return spanName.substring(0, end - 1);
+        }
+        return spanName;
+    }
+
+    public final class Span {
+        private final String name;
+        private final long startedAtMillis = System.currentTimeMillis();
+        private final long startedAtNanos = System.nanoTime();
+        private long bytesIn = -1;
+        private long bytesOut = -1;
+        private String detail;
+        private boolean ended;
+
+        private Span(String name) {
+            this.name = name;
+        }
+
+        public Span bytesIn(long bytes) {
+            this.bytesIn = bytes;
+            return this;
+        }
+
+        public Span bytesOut(long bytes) {
+            this.bytesOut = bytes;
+            return this;
+        }
+
+        public Span detail(String detail) {
+            this.detail = detail;
+            return this;
+        }
+
+        /** Records the span; later calls are ignored. */
+        public void end() {
+            if (ended) {
+                return;
+            }
+            ended = true;
+            long durationNanos = System.nanoTime() - startedAtNanos;
+            add(new TraceSpan(id, name, startedAtMillis, durationNanos / 1_000_000, bytesIn, bytesOut, detail));
+            STAGE_SECONDS.observe(durationNanos / 1e9, stageName(name));
+        }
+    }
+}
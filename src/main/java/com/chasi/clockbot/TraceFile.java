@@ -0,0 +1,81 @@
+package com.chasi.clockbot;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Appends one JSON line per finished request to a trace file. Used only from the DB writer thread.
+ */
+public class TraceFile {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final BufferedWriter writer;
+
+    private TraceFile(BufferedWriter writer) {
+        this.writer = writer;
+    }
+
+    public static TraceFile open(String path) {
+        if (path == null || path.isBlank()) {
+            return null;
+        }
+        try {
+            Path file = Path.of(path).toAbsolutePath();
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            return new TraceFile(Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+        } catch (IOException e) {
+            System.err.println("Failed to open trace file: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void append(RequestLog log, List<TraceSpan> spans) {
+        ObjectNode line = mapper.createObjectNode();
+        line.put("traceId", log.traceId());
+        line.put("fileId", log.fileId());
+        line.put("status", log.status());
+        line.put("resultTime", log.resultTime());
+        ArrayNode spanNodes = line.putArray("spans");
+        for (TraceSpan span : spans) {
+            ObjectNode node = spanNodes.addObject();
+            node.put("name", span.name());
+            node.put("startedAt", span.startedAtMillis());
+            node.put("durationMs", span.durationMs());
+            node.put("bytesIn", span.bytesIn());
+            node.put("bytesOut", span.bytesOut());
+            node.put("detail", span.detail());
+        }
+        try {
+            writer.write(mapper.writeValueAsString(line));
+            writer.newLine();
+        } catch (IOException e) {
+            System.err.println("Failed to write trace: " + e.getMessage());
+        }
+    }
+
+    public void flush() {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            System.err.println("Failed to flush trace file: " + e.getMessage());
+        }
+    }
+
+    public void close() {
+        try {
+            writer.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.chasi.clockbot;
+
+/**
+ * One timed stage of a request. Byte counts are -1 when they do not apply.
+ */
+public record TraceSpan(String traceId,
+                        String name,
+                        long startedAtMillis,
+                        long durationMs,
+                        long bytesIn,
+                        long bytesOut,
+                        String detail) {
+}
@@ -0,0 +1,119 @@
+package com.chasi.clockbot;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs update handlers on a bounded worker pool. Tasks of the same chat are chained so replies keep
+ * their order, tasks of different chats run in parallel.
+ */
+public class UpdateDispatcher {
+    private final ExecutorService workers;
+    private final Semaphore capacity;
+    private final int maxPending;
+    private final ConcurrentHashMap<Long, CompletableFuture<Void>> chatTails = new ConcurrentHashMap<>();
+
+    public UpdateDispatcher(int workerThreads, int maxPending) {
+        this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), namedThreads("update-worker"));
+        this.capacity = new Semaphore(maxPending);
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Queues a task behind the previous tasks of the same chat. The next task of the chat starts only
+     * when the returned stage completes, but no worker is held while it is pending.
+     *
+     * @return false if the dispatcher is saturated and the task was not queued
+     */
+    public boolean trySubmitAsync(Long chatId, Supplier<? extends CompletionStage<?>> task) {
+        if (!capacity.tryAcquire()) {
+            return false;
+        }
+
+        CompletableFuture<Void> queued = chatTails.compute(chatId, (id, tail) -> {
+            CompletableFuture<Void> previous = tail == null ? CompletableFuture.completedFuture(null) : tail;
+            return previous.thenComposeAsync(ignored -> runSafely(task), workers);
+        });
+        queued.whenComplete((ignored, error) -> {
+            capacity.release();
+            chatTails.remove(chatId, queued);
+            if (error != null) {
+                System.err.println("[UpdateDispatcher] Task rejected: " + error.getMessage());
+            }
+        });
+        return true;
+    }
+
+    /** Executor for continuations of asynchronous tasks that need to block, e.g. on Telegram calls. */
+    public Executor executor() {
+        return workers;
+    }
+
+    public int pending() {
+        return maxPending - capacity.availablePermits();
+    }
+
+    /** Waits for queued and in-flight tasks to finish without stopping the workers. */
+    public void awaitIdle(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        try {
+            while (pending() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (pending() > 0) {
+            System.err.println("[UpdateDispatcher] " + pending() + " tasks still pending after " + timeoutMs + " ms");
+        }
+    }
+
+    /** Waits for queued and in-flight tasks to finish, then stops the workers. */
+    public void shutdown(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        awaitIdle(timeoutMs);
+        try {
+            workers.shutdown();
+            if (!workers.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.shutdownNow();
+        }
+    }
+
+    private static CompletableFuture<Void> runSafely(Supplier<? extends CompletionStage<?>> task) {
+        try {
+            return task.get().toCompletableFuture().handle((ignored, error) -> {
+                if (error != null) {
+                    System.err.println("[UpdateDispatcher] Update handler failed: " + error);
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            System.err.println("[UpdateDispatcher] Update handler failed: " + e);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
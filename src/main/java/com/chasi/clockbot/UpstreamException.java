@@ -0,0 +1,197 @@
+package com.chasi.clockbot;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Failure of a call to the Kie API. Subclasses tell whether the call may be retried and how long the
+ * server asked us to wait.
+ */
+public abstract class UpstreamException extends RuntimeException {
+    private static final Set<Integer> RETRYABLE_CODES = Set.of(429, 500, 502, 503, 504, 524);
+
+    protected UpstreamException(String message) {
+        super(message, null, false, false);
+    }
+
+    public abstract boolean retryable();
+
+    public abstract String kind();
+
+    /** The upstream is shedding load: the concurrency limit should shrink. */
+    public boolean overload() {
+        return false;
+    }
+
+    /** The upstream looks unhealthy rather than the request being wrong; counts against the circuit. */
+    public boolean unhealthy() {
+        return retryable();
+    }
+
+    public Duration retryAfter() {
+        return null;
+    }
+
+    public static UpstreamException from(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+            && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof UpstreamException upstream) {
+            return upstream;
+        }
+        if (cause instanceof HttpTimeoutException) {
+            return new Timeout("Request timed out: " + cause.getMessage());
+        }
+        if (cause instanceof IOException) {
+            return new Transport("Request failed: " + cause.getMessage());
+        }
+        return new Transport("Request failed: " + cause);
+    }
+
+    public static class Timeout extends UpstreamException {
+        public Timeout(String message) {
+            super(message);
+        }
+
+        @Override
+        public boolean retryable() {
+            return true;
+        }
+
+        @Override
+        public String kind() {
+            return "timeout";
+        }
+
+        @Override
+        public boolean overload() {
+            return true;
+        }
+    }
+
+    public static class Transport extends UpstreamException {
+        public Transport(String message) {
+            super(message);
+        }
+
+        @Override
+        public boolean retryable() {
+            return false;
+        }
+
+        @Override
+        public String kind() {
+            return "transport";
+        }
+
+        @Override
+        public boolean unhealthy() {
+            return true;
+        }
+    }
+
+    /** Non-2xx HTTP status. */
+    public static class Status extends UpstreamException {
+        private final int statusCode;
+        private final Duration retryAfter;
+
+        public Status(int statusCode, Duration retryAfter) {
+            super("Bad response status: " + statusCode);
+            this.statusCode = statusCode;
+            this.retryAfter = retryAfter;
+        }
+
+        public int statusCode() {
+            return statusCode;
+        }
+
+        @Override
+        public boolean retryable() {
+            return RETRYABLE_CODES.contains(statusCode);
+        }
+
+        @Override
+        public String kind() {
+            return "status_" + statusCode;
+        }
+
+        @Override
+        public boolean overload() {
+            return statusCode == 429 || statusCode == 503;
+        }
+
+        @Override
+        public Duration retryAfter() {
+            return retryAfter;
+        }
+    }
+
+    /** Error reported inside a 2xx response body ({@code code}/{@code success} fields). */
+    public static class Api extends UpstreamException {
+        private final Integer code;
+        private final String apiMessage;
+
+        public Api(Integer code, String apiMessage) {
+            super(code == null ? "API error: " + apiMessage : "API error code=" + code + " msg=" + apiMessage);
+            this.code = code;
+            this.apiMessage = apiMessage;
+        }
+
+        public Integer code() {
+            return code;
+        }
+
+        @Override
+        public boolean retryable() {
+            if (code != null && RETRYABLE_CODES.contains(code)) {
+                return true;
+            }
+            return apiMessage != null && apiMessage.toLowerCase().contains("server exception");
+        }
+
+        @Override
+        public String kind() {
+            return code == null ? "api_error" : "api_" + code;
+        }
+    }
+
+    /** Refused locally by the concurrency limiter or circuit breaker; the upstream was not called. */
+    public static class Unavailable extends UpstreamException {
+        public Unavailable(String message) {
+            super(message);
+        }
+
+        @Override
+        public boolean retryable() {
+            return false;
+        }
+
+        @Override
+        public String kind() {
+            return "unavailable";
+        }
+    }
+
+    /** Response that could not be understood; retrying would not help. */
+    public static class Malformed extends UpstreamException {
+        public Malformed(String message) {
+            super(message);
+        }
+
+        @Override
+        public boolean retryable() {
+            return false;
+        }
+
+        @Override
+        public String kind() {
+            return "malformed";
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.chasi.clockbot;
+
+import com.pengrad.telegrambot.BotUtils;
+import com.pengrad.telegrambot.model.Update;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+
+/**
+ * Receives updates that Telegram pushes to {@code path} and hands each one to the sink. Requests
+ * without the configured {@code X-Telegram-Bot-Api-Secret-Token} are refused. A non-2xx answer makes
+ * Telegram deliver the update again later, which is how a saturated or draining instance pushes back.
+ */
+public class WebhookServer {
+    public static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    private static final int MAX_BODY_BYTES = 1024 * 1024;
+    private static final int HANDLER_THREADS = 4;
+
+    private static final Metrics.Counter REQUESTS = Metrics.counter("clockbot_webhook_requests_total",
+        "Webhook deliveries by result", "result");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final byte[] secret;
+    private final Predicate<Update> sink;
+    private volatile boolean draining;
+
+    private WebhookServer(HttpServer server, ExecutorService executor, String secret, Predicate<Update> sink) {
+        this.server = server;
+        this.executor = executor;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.sink = sink;
+    }
+
+    /**
+     * @param sink queues an update and returns false if it could not be queued right now
+     * @return the running server, or null if the port cannot be bound
+     */
+    public static WebhookServer start(int port, String path, String secret, Predicate<Update> sink) {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+            ExecutorService executor = Executors.newFixedThreadPool(HANDLER_THREADS,
+                UpdateDispatcher.namedThreads("webhook-http"));
+            WebhookServer webhook = new WebhookServer(server, executor, secret, sink);
+            server.createContext(path, webhook::handle);
+            server.setExecutor(executor);
+            server.start();
+            System.out.println("[WebhookServer] Listening on port " + port + " at " + path);
+            return webhook;
+        } catch (IOException e) {
+            System.err.println("[WebhookServer] Failed to start on port " + port + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Refuses new deliveries so Telegram retries them elsewhere or after the restart, and waits up to
+     * {@code drainSeconds} for requests already being handled.
+     */
+    public void stop(int drainSeconds) {
+        draining = true;
+        server.stop(drainSeconds);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                respond(exchange, 405, "method_not_allowed");
+                return;
+            }
+            String token = exchange.getRequestHeaders().getFirst(SECRET_HEADER);
+            if (token == null || !MessageDigest.isEqual(secret, token.getBytes(StandardCharsets.UTF_8))) {
+                respond(exchange, 401, "unauthorized");
+                return;
+            }
+            if (draining) {
+                respond(exchange, 503, "draining");
+                return;
+            }
+            byte[] body = readBody(exchange.getRequestBody());
+            if (body == null) {
+                respond(exchange, 413, "too_large");
+                return;
+            }
+            Update update;
+            try {
+                update = BotUtils.parseUpdate(new String(body, StandardCharsets.UTF_8));
+            } catch (RuntimeException e) {
+                update = null;
+            }
+            if (update == null) {
+                respond(exchange, 400, "bad_request");
+                return;
+            }
+            if (!sink.test(update)) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 503, "saturated");
+                return;
+            }
+            respond(exchange, 200, "accepted");
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String result) throws IOException {
+        REQUESTS.inc(result);
+        exchange.sendResponseHeaders(status, -1);
+    }
+
+    /** @return the body, or null if it is larger than {@link #MAX_BODY_BYTES} */
+    private static byte[] readBody(InputStream input) throws IOException {
+        byte[] body = input.readNBytes(MAX_BODY_BYTES + 1);
+        return body.length > MAX_BODY_BYTES ? null : body;
+    }
+}
@@ -0,0 +1,58 @@
+package com.chasi.clockbot;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the confidence recommended for {@code ANALOG_READER_MIN_CONFIDENCE} against the labelled corpus:
+ * a reading at or above it must be within two minutes of the dial's time, and photos without a dial must
+ * stay below it. A dial does not tell AM from PM, so times are compared on the 12-hour face.
+ */
+class AnalogClockReaderCorpusTest {
+    private static final int MIN_CONFIDENCE = 85;
+    private static final int TOLERANCE_MINUTES = 2;
+    /** Share of dials answered locally, so a reader that never answers does not pass. */
+    private static final double MIN_COVERAGE = 0.5;
+
+    @Test
+    void confidentReadingsAreNeverWrong() {
+        List<String> misreads = new ArrayList<>();
+        int dials = 0;
+        int answered = 0;
+        for (Corpus.Sample sample : Corpus.load("analog")) {
+            boolean dial = !Corpus.NONE.equals(sample.time());
+            if (dial) {
+                dials++;
+            }
+            AnalogClockReader.Reading reading = AnalogClockReader.read(sample.image());
+            if (reading == null || reading.confidence() * 100 < MIN_CONFIDENCE) {
+                continue;
+            }
+            if (dial && dialDistance(reading.time(), sample.time()) <= TOLERANCE_MINUTES) {
+                answered++;
+            } else {
+                misreads.add(sample.file() + " (" + sample.time() + ") read as " + reading.time()
+                    + " with confidence " + reading.confidence());
+            }
+        }
+
+        assertEquals(List.of(), misreads, "Confident misreads");
+        assertTrue(answered >= MIN_COVERAGE * dials, "Only " + answered + " of " + dials + " dials read");
+    }
+
+    /** @return minutes between two HH:MM times on a 12-hour face */
+    private static int dialDistance(String first, String second) {
+        int difference = Math.abs(dialMinutes(first) - dialMinutes(second));
+        return Math.min(difference, 12 * 60 - difference);
+    }
+
+    private static int dialMinutes(String time) {
+        String[] parts = time.split(":");
+        return Integer.parseInt(parts[0]) % 12 * 60 + Integer.parseInt(parts[1]);
+    }
+}
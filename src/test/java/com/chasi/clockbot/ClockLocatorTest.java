@@ -0,0 +1,71 @@
+package com.chasi.clockbot;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClockLocatorTest {
+    private static final double MARGIN = 0.2;
+
+    /** A printed year has digit-shaped glyphs in a row, but cropping to it would cut the clock away. */
+    @Test
+    void yearLabelNextToClockKeepsFullFrame() {
+        for (String label : List.of("2024", "1987")) {
+            ClockLocator.Location location = ClockLocator.locate(GrayImage.of(clockWithLabel(label)), MARGIN);
+            assertNotEquals("display", location.source(), label + " cropped to " + location.describe());
+        }
+    }
+
+    @Test
+    void onlyDisplaysAreCroppedAsDisplays() {
+        List<String> wrongCrops = new ArrayList<>();
+        int displayCrops = 0;
+        for (Corpus.Sample sample : Corpus.load("digital")) {
+            ClockLocator.Location location = ClockLocator.locate(sample.image(), MARGIN);
+            if (!"display".equals(location.source())) {
+                continue;
+            }
+            if (Corpus.NONE.equals(sample.time()) || !sample.file().startsWith("display-")) {
+                wrongCrops.add(sample.file() + " " + location.describe());
+            } else {
+                displayCrops++;
+            }
+        }
+
+        assertEquals(List.of(), wrongCrops, "Display crops of photos without a display");
+        assertTrue(displayCrops > 0, "No display was cropped");
+    }
+
+    /** A wall clock running off the right edge, so no dial is found with confidence, and a label. */
+    private static BufferedImage clockWithLabel(String label) {
+        BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setColor(new Color(225, 220, 205));
+        graphics.fillRect(0, 0, 640, 480);
+        graphics.setColor(Color.WHITE);
+        graphics.fillOval(380, 140, 420, 420);
+        graphics.setColor(new Color(30, 30, 30));
+        graphics.setStroke(new BasicStroke(10));
+        graphics.drawOval(380, 140, 420, 420);
+        graphics.setStroke(new BasicStroke(12));
+        graphics.drawLine(590, 350, 520, 250);
+        graphics.setStroke(new BasicStroke(7));
+        graphics.drawLine(590, 350, 430, 380);
+        graphics.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 96));
+        graphics.drawString(label, 20, 110);
+        graphics.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,52 @@
+package com.chasi.clockbot;
+
+import javax.imageio.ImageIO;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Labelled photos under {@code corpus/<set>/} on the test classpath. {@code labels.csv} lists each file
+ * with the time it shows, or {@code none} for a photo without that kind of clock. The photos are
+ * rendered clocks on cluttered backgrounds with noise, tilt and JPEG artifacts, sized like bot uploads.
+ */
+final class Corpus {
+    static final String NONE = "none";
+
+    record Sample(String file, String time, GrayImage image) {
+    }
+
+    private Corpus() {
+    }
+
+    static List<Sample> load(String set) {
+        String base = "/corpus/" + set + "/";
+        List<Sample> samples = new ArrayList<>();
+        try (BufferedReader labels = new BufferedReader(new InputStreamReader(
+            open(base + "labels.csv"), StandardCharsets.UTF_8))) {
+            labels.readLine();
+            for (String line = labels.readLine(); line != null; line = labels.readLine()) {
+                String[] fields = line.split(",");
+                try (InputStream image = open(base + fields[0])) {
+                    samples.add(new Sample(fields[0], fields[1], GrayImage.of(ImageIO.read(image))));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return samples;
+    }
+
+    private static InputStream open(String path) throws IOException {
+        InputStream input = Corpus.class.getResourceAsStream(path);
+        if (input == null) {
+            throw new IOException("Missing test resource " + path);
+        }
+        return input;
+    }
+}
@@ -0,0 +1,79 @@
+package com.chasi.clockbot;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Latency and failures that a {@link StandInServer} route adds to its answers.
+ *
+ * @param latency      {@code fixed:MS}, {@code uniform:MIN:MAX} or {@code lognormal:MEDIAN:P99}, in ms
+ * @param errorPercent share of requests answered with 500
+ * @param throttlePercent share of requests answered with 429
+ */
+public record FaultProfile(String latency, double errorPercent, double throttlePercent) {
+    /** z-score of the 99th percentile of the standard normal distribution. */
+    private static final double Z_99 = 2.3263;
+
+    public FaultProfile {
+        if (errorPercent < 0 || throttlePercent < 0 || errorPercent + throttlePercent > 100) {
+            throw new IllegalArgumentException("Error and 429 percentages must be >= 0 and add up to <= 100");
+        }
+        parse(latency);
+    }
+
+    /** @return the delay before the next answer, in ms */
+    public long nextDelayMillis() {
+        double[] spec = parse(latency);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double delay = switch (spec.length) {
+            case 1 -> spec[0];
+            case 2 -> spec[0] + random.nextDouble() * (spec[1] - spec[0]);
+            default -> spec[1] * Math.exp(Math.log(spec[2] / spec[1]) / Z_99 * random.nextGaussian());
+        };
+        return Math.max(0, Math.round(delay));
+    }
+
+    /** @return 500, 429 or 200 for the next answer */
+    public int nextStatus() {
+        double roll = ThreadLocalRandom.current().nextDouble() * 100;
+        if (roll < errorPercent) {
+            return 500;
+        }
+        return roll < errorPercent + throttlePercent ? 429 : 200;
+    }
+
+    public String describe() {
+        return String.format(Locale.ROOT, "%s, 500: %.1f%%, 429: %.1f%%", latency, errorPercent, throttlePercent);
+    }
+
+    /** @return {ms} for fixed, {min, max} for uniform, {0, median, p99} for lognormal */
+    private static double[] parse(String latency) {
+        String[] parts = latency.split(":");
+        try {
+            switch (parts[0]) {
+                case "fixed":
+                    if (parts.length == 2 && Double.parseDouble(parts[1]) >= 0) {
+                        return new double[] {Double.parseDouble(parts[1])};
+                    }
+                    break;
+                case "uniform":
+                    if (parts.length == 3 && Double.parseDouble(parts[1]) >= 0
+                        && Double.parseDouble(parts[2]) >= Double.parseDouble(parts[1])) {
+                        return new double[] {Double.parseDouble(parts[1]), Double.parseDouble(parts[2])};
+                    }
+                    break;
+                case "lognormal":
+                    if (parts.length == 3 && Double.parseDouble(parts[1]) > 0
+                        && Double.parseDouble(parts[2]) >= Double.parseDouble(parts[1])) {
+                        return new double[] {0, Double.parseDouble(parts[1]), Double.parseDouble(parts[2])};
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("Latency must be fixed:MS, uniform:MIN:MAX or lognormal:MEDIAN:P99, got "
+            + latency);
+    }
+}
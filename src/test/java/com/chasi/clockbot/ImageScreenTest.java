@@ -0,0 +1,121 @@
+package com.chasi.clockbot;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.ConvolveOp;
+import java.awt.image.Kernel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Checks the thresholds recommended for {@code SCREEN_MIN_CONTRAST} and {@code SCREEN_MIN_SHARPNESS}:
+ * photos with nothing to read are refused, and no photo of a clock is.
+ */
+class ImageScreenTest {
+    private static final ImageScreen SCREEN = new ImageScreen(200, 24, 25, false);
+    private static final int WIDTH = 1600;
+    private static final int HEIGHT = 1200;
+
+    @Test
+    void blankAndBlackFramesHaveLowContrast() {
+        assertEquals(ProcessedImage.REJECTED_LOW_CONTRAST, check(flat(new Color(200, 195, 185))), "blank wall");
+        assertEquals(ProcessedImage.REJECTED_LOW_CONTRAST, check(flat(new Color(8, 8, 8))), "lens cap");
+    }
+
+    @Test
+    void blurredClockIsBlurry() {
+        int size = 31;
+        float[] weights = new float[size * size];
+        Arrays.fill(weights, 1f / weights.length);
+        BufferedImage blurred = new ConvolveOp(new Kernel(size, size, weights), ConvolveOp.EDGE_NO_OP, null)
+            .filter(wallClock(), null);
+
+        assertEquals(ProcessedImage.REJECTED_BLURRY, check(blurred));
+    }
+
+    /** Most of the frame is black, so the whole frame's percentiles would not see the digits at all. */
+    @Test
+    void litDisplayInTheDarkPasses() {
+        for (int points : new int[] {40, 80, 120}) {
+            assertNull(check(darkDisplay(points)), points + " pt");
+        }
+    }
+
+    @Test
+    void noCorpusPhotoIsRefused() {
+        List<String> refused = new ArrayList<>();
+        for (String set : List.of("digital", "analog")) {
+            for (Corpus.Sample sample : Corpus.load(set)) {
+                GrayImage luma = sample.image();
+                String reason = SCREEN.check(luma, luma.width(), luma.height());
+                if (reason != null && !Corpus.NONE.equals(sample.time())) {
+                    refused.add(set + "/" + sample.file() + " " + reason);
+                }
+            }
+        }
+
+        assertEquals(List.of(), refused, "Clock photos refused");
+    }
+
+    private static String check(BufferedImage image) {
+        return SCREEN.check(GrayImage.of(image), image.getWidth(), image.getHeight());
+    }
+
+    /** A plain surface with a slight gradient and sensor noise. */
+    private static BufferedImage flat(Color color) {
+        Random random = new Random(1);
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int offset = x / 200 + (int) Math.round(random.nextGaussian() * 4);
+                image.setRGB(x, y, new Color(clamp(color.getRed() + offset), clamp(color.getGreen() + offset),
+                    clamp(color.getBlue() + offset)).getRGB());
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage wallClock() {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(new Color(210, 200, 185));
+        graphics.fillRect(0, 0, WIDTH, HEIGHT);
+        graphics.setColor(Color.WHITE);
+        graphics.fillOval(500, 300, 600, 600);
+        graphics.setColor(Color.DARK_GRAY);
+        graphics.setStroke(new BasicStroke(14));
+        graphics.drawOval(500, 300, 600, 600);
+        graphics.drawLine(800, 600, 800, 360);
+        graphics.drawLine(800, 600, 950, 650);
+        graphics.dispose();
+        return image;
+    }
+
+    private static BufferedImage darkDisplay(int points) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setColor(new Color(12, 10, 10));
+        graphics.fillRect(0, 0, WIDTH, HEIGHT);
+        graphics.setColor(new Color(255, 30, 20));
+        graphics.setFont(new Font(Font.SANS_SERIF, Font.BOLD, points));
+        graphics.drawString("23:47", 700, 620);
+        graphics.dispose();
+        return image;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
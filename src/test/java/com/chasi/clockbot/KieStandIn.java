@@ -0,0 +1,103 @@
+package com.chasi.clockbot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stands in for the Kie file upload and Gemini chat completion endpoints in load tests. Uploads are
+ * accepted without being stored, and every image in a completion request gets a random time, in the
+ * single or batch answer format that the request's response schema asks for.
+ */
+public class KieStandIn {
+    private final StandInServer server;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AtomicLong nextUpload = new AtomicLong(1);
+
+    private KieStandIn(StandInServer server) {
+        this.server = server;
+    }
+
+    public static KieStandIn start(FaultProfile upload, FaultProfile gemini) throws IOException {
+        StandInServer server = StandInServer.start("kie-stand-in");
+        KieStandIn kie = new KieStandIn(server);
+        server.route("/api/file-base64-upload", "kie_upload", upload, kie::upload, kie::uploadFailure);
+        server.route("/gemini-3-pro/v1/chat/completions", "gemini", gemini, kie::complete, kie::geminiFailure);
+        return kie;
+    }
+
+    /** The value for both {@code KIE_API_BASE_URL} and {@code KIE_UPLOAD_BASE_URL}. */
+    public String baseUrl() {
+        return server.baseUrl();
+    }
+
+    public StandInServer server() {
+        return server;
+    }
+
+    public void stop() {
+        server.stop();
+    }
+
+    private CompletableFuture<StandInServer.Reply> upload(StandInServer.Request request) {
+        String url = baseUrl() + "/files/upload-" + nextUpload.getAndIncrement() + ".jpg";
+        ObjectNode root = mapper.createObjectNode().put("success", true).put("code", 200).put("msg", "success");
+        root.putObject("data").put("downloadUrl", url).put("fileUrl", url);
+        return CompletableFuture.completedFuture(StandInServer.Reply.json(200, root.toString()));
+    }
+
+    private CompletableFuture<StandInServer.Reply> complete(StandInServer.Request request) {
+        JsonNode root;
+        try {
+            root = mapper.readTree(request.body());
+        } catch (IOException e) {
+            return CompletableFuture.completedFuture(
+                StandInServer.Reply.json(400, "{\"code\":400,\"msg\":\"Invalid JSON\"}"));
+        }
+        int images = 0;
+        for (JsonNode message : root.path("messages")) {
+            for (JsonNode part : message.path("content")) {
+                if ("image_url".equals(part.path("type").asText())) {
+                    images++;
+                }
+            }
+        }
+
+        ObjectNode content = mapper.createObjectNode();
+        if ("clock_times".equals(root.at("/response_format/json_schema/name").asText())) {
+            ArrayNode times = content.putArray("times");
+            for (int index = 1; index <= images; index++) {
+                times.addObject().put("index", index).put("time", randomTime());
+            }
+        } else {
+            content.put("time", randomTime());
+        }
+        ObjectNode answer = mapper.createObjectNode();
+        answer.putArray("choices").addObject().putObject("message")
+            .put("role", "assistant")
+            .put("content", content.toString());
+        return CompletableFuture.completedFuture(StandInServer.Reply.json(200, answer.toString()));
+    }
+
+    private StandInServer.Reply uploadFailure(int status) {
+        return StandInServer.Reply.json(status,
+            "{\"success\":false,\"code\":" + status + ",\"msg\":\"stand-in failure\"}");
+    }
+
+    private StandInServer.Reply geminiFailure(int status) {
+        return StandInServer.Reply.json(status,
+            "{\"error\":{\"code\":" + status + ",\"message\":\"stand-in failure\"}}");
+    }
+
+    private static String randomTime() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return String.format(Locale.ROOT, "%02d:%02d", random.nextInt(24), random.nextInt(60));
+    }
+}
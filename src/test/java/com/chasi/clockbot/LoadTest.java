@@ -0,0 +1,294 @@
+package com.chasi.clockbot;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Offline end-to-end load test. Starts the bot in this JVM against {@link TelegramStandIn} and
+ * {@link KieStandIn}, replays a directory of photos as a Poisson stream of private-chat messages, and
+ * reports throughput, reply latency percentiles and heap use. Every photo comes from a chat of its own
+ * so its reply can be matched, while senders are drawn from a pool so per-user limits still apply.
+ *
+ * <p>It lives with the tests so that the stand-ins stay out of the bot's jar. Run it from the test classpath,
+ * as shown in the README, with {@code --corpus=DIR}; the other options are listed in {@link #DEFAULTS}. Bot
+ * settings are read from the environment as usual, except for the endpoints, token and database, which
+ * point at the stand-ins and a temporary file.
+ */
+public final class LoadTest {
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("corpus", "");
+        DEFAULTS.put("rate", "5");
+        DEFAULTS.put("duration", "60");
+        DEFAULTS.put("users", "50");
+        DEFAULTS.put("drain", "60");
+        DEFAULTS.put("cache", "off");
+        DEFAULTS.put("telegram", "lognormal:30:150");
+        DEFAULTS.put("telegram-errors", "0");
+        DEFAULTS.put("telegram-429", "0");
+        DEFAULTS.put("files", "lognormal:50:300");
+        DEFAULTS.put("files-errors", "0");
+        DEFAULTS.put("files-429", "0");
+        DEFAULTS.put("upload", "lognormal:300:1500");
+        DEFAULTS.put("upload-errors", "1");
+        DEFAULTS.put("upload-429", "0");
+        DEFAULTS.put("gemini", "lognormal:2500:9000");
+        DEFAULTS.put("gemini-errors", "1");
+        DEFAULTS.put("gemini-429", "1");
+    }
+
+    private static final String TOKEN = "100000:LOADTEST";
+    private static final long FIRST_CHAT_ID = 1_000_000_000L;
+    private static final long HEAP_SAMPLE_MS = 200;
+
+    private record Photo(byte[] bytes, int width, int height) {
+    }
+
+    /** Times are {@link System#nanoTime()}; 0 until the message arrives. */
+    private static final class Sent {
+        final long publishedAt;
+        volatile long firstReplyAt;
+        volatile long answeredAt;
+        volatile String answer;
+
+        Sent(long publishedAt) {
+            this.publishedAt = publishedAt;
+        }
+    }
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        List<Photo> corpus = loadCorpus(Path.of(options.get("corpus")));
+        double rate = Double.parseDouble(options.get("rate"));
+        int durationSeconds = Integer.parseInt(options.get("duration"));
+        int users = Integer.parseInt(options.get("users"));
+        int drainSeconds = Integer.parseInt(options.get("drain"));
+        if (rate <= 0 || durationSeconds <= 0 || users <= 0 || drainSeconds < 0) {
+            throw new IllegalArgumentException("rate, duration and users must be > 0, drain >= 0");
+        }
+
+        Map<Long, Sent> sent = new ConcurrentHashMap<>();
+        TelegramStandIn telegram = TelegramStandIn.start(TOKEN, faults(options, "telegram"), faults(options, "files"),
+            message -> onMessage(sent.get(message.chatId()), message));
+        KieStandIn kie = KieStandIn.start(faults(options, "upload"), faults(options, "gemini"));
+
+        Map<String, String> env = new HashMap<>(System.getenv());
+        env.put("TELEGRAM_BOT_TOKEN", TOKEN);
+        env.put("TELEGRAM_API_BASE_URL", telegram.baseUrl());
+        env.put("KIE_API_KEY", "load-test");
+        env.put("KIE_API_BASE_URL", kie.baseUrl());
+        env.put("KIE_UPLOAD_BASE_URL", kie.baseUrl());
+        env.put("DB_PATH", Files.createTempDirectory("clockbot-load").resolve("bot.db").toString());
+        env.put("WEBHOOK_PORT", "0");
+        env.putIfAbsent("METRICS_PORT", "0");
+        if ("off".equals(options.get("cache"))) {
+            // A corpus is much smaller than real traffic, so repeats would otherwise be answered from cache.
+            env.put("CACHE_TTL_SECONDS", "1");
+            env.put("NEAR_DUPLICATE_WINDOW_SECONDS", "0");
+        }
+        Runnable stopBot = ClockBotApp.start(Config.from(env));
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long gcCountBefore = gcCount();
+        long gcMillisBefore = gcMillis();
+        AtomicLong maxHeap = new AtomicLong();
+        Thread heapSampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                maxHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                try {
+                    Thread.sleep(HEAP_SAMPLE_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "load-heap-sampler");
+        heapSampler.setDaemon(true);
+        heapSampler.start();
+
+        System.out.printf(Locale.ROOT, "[LoadTest] Sending %.1f photos/s for %d s from %d users, corpus of %d%n",
+            rate, durationSeconds, users, corpus.size());
+        long startedAt = System.nanoTime();
+        long endAt = startedAt + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long nextAt = startedAt;
+        long chatId = FIRST_CHAT_ID;
+        while (nextAt < endAt) {
+            long wait = nextAt - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            Photo photo = corpus.get((int) (chatId - FIRST_CHAT_ID) % corpus.size());
+            long userId = 1 + ThreadLocalRandom.current().nextInt(users);
+            sent.put(chatId, new Sent(System.nanoTime()));
+            telegram.publishPhoto(chatId, userId, photo.bytes(), photo.width(), photo.height());
+            chatId++;
+            // Exponential gaps make arrivals a Poisson process, with the bursts real traffic has.
+            nextAt += (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) / rate * 1e9);
+        }
+        long sendingEndedAt = System.nanoTime();
+
+        long drainUntil = sendingEndedAt + TimeUnit.SECONDS.toNanos(drainSeconds);
+        while (System.nanoTime() < drainUntil && sent.values().stream().anyMatch(s -> s.answeredAt == 0)) {
+            Thread.sleep(100);
+        }
+        heapSampler.interrupt();
+        long heapAtEnd = memory.getHeapMemoryUsage().getUsed();
+
+        report(sent, startedAt, sendingEndedAt);
+        System.out.printf(Locale.ROOT, "[LoadTest] Heap MB: max used %.1f, used at end %.1f, max %.1f; "
+                + "corpus %.1f; GC: %d collections, %d ms%n",
+            maxHeap.get() / 1e6, heapAtEnd / 1e6, memory.getHeapMemoryUsage().getMax() / 1e6,
+            corpus.stream().mapToLong(photo -> photo.bytes().length).sum() / 1e6,
+            gcCount() - gcCountBefore, gcMillis() - gcMillisBefore);
+        for (String line : telegram.server().describe()) {
+            System.out.println("[LoadTest] " + line);
+        }
+        for (String line : kie.server().describe()) {
+            System.out.println("[LoadTest] " + line);
+        }
+
+        stopBot.run();
+        telegram.stop();
+        kie.stop();
+        // The Telegram client keeps non-daemon threads alive after the listener is removed.
+        System.exit(0);
+    }
+
+    private static void onMessage(Sent request, TelegramStandIn.SentMessage message) {
+        if (request == null) {
+            return;
+        }
+        synchronized (request) {
+            if (request.firstReplyAt == 0) {
+                request.firstReplyAt = message.sentAtNanos();
+            }
+            if (request.answeredAt == 0 && !message.text().startsWith(ClockBotApp.PENDING_TEXT)) {
+                request.answer = message.text();
+                request.answeredAt = message.sentAtNanos();
+            }
+        }
+    }
+
+    private static void report(Map<Long, Sent> sent, long startedAt, long sendingEndedAt) {
+        List<Long> firstReply = new ArrayList<>();
+        List<Long> answered = new ArrayList<>();
+        Map<String, Integer> answers = new TreeMap<>();
+        long lastAnswerAt = sendingEndedAt;
+        for (Sent request : sent.values()) {
+            if (request.firstReplyAt != 0) {
+                firstReply.add(request.firstReplyAt - request.publishedAt);
+            }
+            if (request.answeredAt != 0) {
+                answered.add(request.answeredAt - request.publishedAt);
+                lastAnswerAt = Math.max(lastAnswerAt, request.answeredAt);
+                String answer = request.answer.matches("\\d{2}:\\d{2}") ? "HH:MM" : request.answer;
+                answers.merge(answer, 1, Integer::sum);
+            }
+        }
+
+        double sendingSeconds = (sendingEndedAt - startedAt) / 1e9;
+        double answerSeconds = (lastAnswerAt - startedAt) / 1e9;
+        System.out.printf(Locale.ROOT, "[LoadTest] Sent %d photos in %.1f s (%.2f/s), answered %d in %.1f s "
+                + "(%.2f/s), unanswered %d%n",
+            sent.size(), sendingSeconds, sent.size() / sendingSeconds, answered.size(), answerSeconds,
+            answered.size() / answerSeconds, sent.size() - answered.size());
+        System.out.println("[LoadTest] First reply ms: " + percentiles(firstReply));
+        System.out.println("[LoadTest] Answer ms: " + percentiles(answered));
+        answers.forEach((answer, count) -> System.out.println("[LoadTest] Answer " + count + "x: " + answer));
+    }
+
+    private static String percentiles(List<Long> nanos) {
+        if (nanos.isEmpty()) {
+            return "none";
+        }
+        long[] sorted = nanos.stream().mapToLong(Long::longValue).sorted().toArray();
+        return String.format(Locale.ROOT, "p50=%d p90=%d p99=%d max=%d", percentile(sorted, 50),
+            percentile(sorted, 90), percentile(sorted, 99), sorted[sorted.length - 1] / 1_000_000);
+    }
+
+    private static long percentile(long[] sorted, double percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1_000_000;
+    }
+
+    private static FaultProfile faults(Map<String, String> options, String endpoint) {
+        return new FaultProfile(options.get(endpoint), Double.parseDouble(options.get(endpoint + "-errors")),
+            Double.parseDouble(options.get(endpoint + "-429")));
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            String key = arg.startsWith("--") && separator > 2 ? arg.substring(2, separator) : null;
+            if (key == null || !DEFAULTS.containsKey(key)) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", expected --name=value with name one of "
+                    + DEFAULTS.keySet());
+            }
+            options.put(key, arg.substring(separator + 1));
+        }
+        if (options.get("corpus").isBlank()) {
+            throw new IllegalArgumentException("--corpus=DIR with JPEG or PNG photos is required");
+        }
+        if (!options.get("cache").equals("on") && !options.get("cache").equals("off")) {
+            throw new IllegalArgumentException("--cache must be on or off");
+        }
+        return options;
+    }
+
+    private static List<Photo> loadCorpus(Path directory) throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing
+                .filter(path -> path.getFileName().toString().toLowerCase(Locale.ROOT).matches(".*\\.(jpe?g|png)"))
+                .sorted()
+                .toList();
+        }
+        List<Photo> corpus = new ArrayList<>();
+        for (Path file : files) {
+            byte[] bytes = Files.readAllBytes(file);
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+            if (image == null) {
+                System.err.println("[LoadTest] Skipping unreadable " + file);
+                continue;
+            }
+            corpus.add(new Photo(bytes, image.getWidth(), image.getHeight()));
+        }
+        if (corpus.isEmpty()) {
+            throw new IllegalArgumentException("No readable JPEG or PNG photos in " + directory);
+        }
+        return corpus;
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+            .mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+            .mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+}
@@ -0,0 +1,111 @@
+package com.chasi.clockbot;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class NearDuplicateIndexTest {
+    private static final long CHAT = 42;
+    private static final int CROP_MARGIN_PERCENT = 20;
+
+    /** A wall clock shot from across the room, five minutes later: most of the frame has not changed. */
+    @Test
+    void movedMinuteHandIsNoDuplicate() throws IOException {
+        for (int radius : new int[] {60, 100, 200}) {
+            NearDuplicateIndex index = newIndex();
+            index.add(CHAT, fingerprint(wallClock(radius, 10, 10), 0.9f), GeminiResult.ok("10:10", "{}"));
+
+            assertNull(index.find(CHAT, fingerprint(wallClock(radius, 10, 15), 0.9f)), "radius " + radius);
+        }
+    }
+
+    @Test
+    void recompressedCopyIsDuplicateInSameChatOnly() throws IOException {
+        NearDuplicateIndex index = newIndex();
+        index.add(CHAT, fingerprint(wallClock(200, 10, 10), 0.9f), GeminiResult.ok("10:10", "{}"));
+        ImageFingerprint copy = fingerprint(wallClock(200, 10, 10), 0.5f);
+
+        GeminiResult hit = index.find(CHAT, copy);
+        assertNotNull(hit);
+        assertEquals("10:10", hit.time());
+        assertNull(index.find(CHAT + 1, copy));
+    }
+
+    private static NearDuplicateIndex newIndex() {
+        return new NearDuplicateIndex(10, 3, 60_000);
+    }
+
+    private static ImageFingerprint fingerprint(BufferedImage image, float quality) throws IOException {
+        byte[] jpeg = jpeg(image, quality);
+        return ImagePreprocessor.preprocess(new ByteArrayInputStream(jpeg), "photo.jpg", jpeg.length, 300 * 1024,
+            CROP_MARGIN_PERCENT, null, Trace.forUpdate(1)).fingerprint();
+    }
+
+    private static BufferedImage wallClock(int radius, int hour, int minute) {
+        BufferedImage image = new BufferedImage(1024, 768, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setPaint(new GradientPaint(0, 0, new Color(200, 190, 170), 1024, 768, new Color(150, 140, 125)));
+        graphics.fillRect(0, 0, 1024, 768);
+        graphics.setColor(new Color(90, 60, 40));
+        graphics.fillRect(80, 520, 300, 200);
+        graphics.fillRect(700, 450, 250, 260);
+
+        int centerX = 600;
+        int centerY = 260;
+        graphics.setColor(Color.WHITE);
+        graphics.fillOval(centerX - radius, centerY - radius, 2 * radius, 2 * radius);
+        graphics.setColor(new Color(25, 25, 25));
+        graphics.setStroke(new BasicStroke(Math.max(2, radius / 15f)));
+        graphics.drawOval(centerX - radius, centerY - radius, 2 * radius, 2 * radius);
+        for (int mark = 0; mark < 12; mark++) {
+            double angle = Math.PI * 2 * mark / 12;
+            graphics.drawLine(
+                (int) (centerX + Math.sin(angle) * radius * 0.8), (int) (centerY - Math.cos(angle) * radius * 0.8),
+                (int) (centerX + Math.sin(angle) * radius * 0.92), (int) (centerY - Math.cos(angle) * radius * 0.92));
+        }
+        hand(graphics, centerX, centerY, Math.PI * 2 * minute / 60, radius * 0.8, Math.max(2, radius / 25f));
+        hand(graphics, centerX, centerY, Math.PI * 2 * (hour % 12 + minute / 60.0) / 12, radius * 0.5,
+            Math.max(3, radius / 14f));
+        graphics.dispose();
+        return image;
+    }
+
+    private static void hand(Graphics2D graphics, int centerX, int centerY, double angle, double length, float width) {
+        graphics.setStroke(new BasicStroke(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        graphics.drawLine(centerX, centerY,
+            (int) (centerX + Math.sin(angle) * length), (int) (centerY - Math.cos(angle) * length));
+    }
+
+    private static byte[] jpeg(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(output)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,44 @@
+package com.chasi.clockbot;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the confidence recommended for {@code DIGITAL_READER_MIN_CONFIDENCE} against the labelled corpus:
+ * a reading at or above it must show the exact time, and photos without a display must stay below it.
+ */
+class SevenSegmentReaderCorpusTest {
+    private static final int MIN_CONFIDENCE = 85;
+    /** Share of displays answered locally, so a reader that never answers does not pass. */
+    private static final double MIN_COVERAGE = 0.4;
+
+    @Test
+    void confidentReadingsAreNeverWrong() {
+        List<String> misreads = new ArrayList<>();
+        int displays = 0;
+        int answered = 0;
+        for (Corpus.Sample sample : Corpus.load("digital")) {
+            boolean display = !Corpus.NONE.equals(sample.time());
+            if (display) {
+                displays++;
+            }
+            SevenSegmentReader.Reading reading = SevenSegmentReader.read(sample.image());
+            if (reading == null || reading.confidence() * 100 < MIN_CONFIDENCE) {
+                continue;
+            }
+            if (display && reading.time().equals(sample.time())) {
+                answered++;
+            } else {
+                misreads.add(sample.file() + " (" + sample.time() + ") read as " + reading.describe());
+            }
+        }
+
+        assertEquals(List.of(), misreads, "Confident misreads");
+        assertTrue(answered >= MIN_COVERAGE * displays, "Only " + answered + " of " + displays + " displays read");
+    }
+}
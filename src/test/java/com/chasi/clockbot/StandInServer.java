@@ -0,0 +1,179 @@
+package com.chasi.clockbot;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * In-process HTTP server on a free loopback port that stands in for an upstream API during load tests.
+ * Each route waits for a delay drawn from its {@link FaultProfile} and fails a share of requests with
+ * 500 or 429 before its handler sees them. Delays are scheduled rather than slept, so a slow route does
+ * not tie up the threads that read requests.
+ */
+public class StandInServer {
+    private static final int HANDLER_THREADS = 16;
+
+    public record Request(String path, String contentType, String query, byte[] body) {
+        /** Query and form parameters; a JSON body is left to the handler. */
+        public Map<String, String> params() {
+            Map<String, String> params = new HashMap<>();
+            addParams(params, query);
+            if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded")) {
+                addParams(params, new String(body, StandardCharsets.UTF_8));
+            }
+            return params;
+        }
+
+        private static void addParams(Map<String, String> params, String encoded) {
+            if (encoded == null || encoded.isEmpty()) {
+                return;
+            }
+            for (String pair : encoded.split("&")) {
+                int separator = pair.indexOf('=');
+                if (separator > 0) {
+                    params.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+                }
+            }
+        }
+    }
+
+    public record Reply(int status, String contentType, byte[] body) {
+        public static Reply json(int status, String json) {
+            return new Reply(status, "application/json", json.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    public interface Handler {
+        /** @return the answer, which may complete later, e.g. when a long poll gets an update */
+        CompletableFuture<Reply> handle(Request request);
+    }
+
+    private record Route(String name, FaultProfile faults, Handler handler, IntFunction<Reply> failure,
+                         AtomicLong requests, AtomicLong errors, AtomicLong throttled) {
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timer;
+    private final List<Route> routes = new ArrayList<>();
+
+    private StandInServer(HttpServer server, ExecutorService executor, ScheduledExecutorService timer) {
+        this.server = server;
+        this.executor = executor;
+        this.timer = timer;
+    }
+
+    public static StandInServer start(String name) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        ExecutorService executor = Executors.newFixedThreadPool(HANDLER_THREADS,
+            UpdateDispatcher.namedThreads(name + "-http"));
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            UpdateDispatcher.namedThreads(name + "-timer"));
+        server.setExecutor(executor);
+        server.start();
+        return new StandInServer(server, executor, timer);
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /** Delays or completes work from handlers, e.g. to end a long poll. */
+    public ScheduledExecutorService timer() {
+        return timer;
+    }
+
+    /**
+     * Serves every path that starts with {@code prefix}.
+     *
+     * @param failure the body the real API sends with a 500 or 429 status
+     */
+    public void route(String prefix, String name, FaultProfile faults, Handler handler, IntFunction<Reply> failure) {
+        Route route = new Route(name, faults, handler, failure, new AtomicLong(), new AtomicLong(), new AtomicLong());
+        routes.add(route);
+        server.createContext(prefix, exchange -> handle(route, exchange));
+    }
+
+    /** One line per route with the requests it got and the failures it injected. */
+    public List<String> describe() {
+        List<String> lines = new ArrayList<>();
+        for (Route route : routes) {
+            lines.add(String.format(Locale.ROOT, "%-16s requests=%d 500=%d 429=%d (%s)", route.name(),
+                route.requests().get(), route.errors().get(), route.throttled().get(), route.faults().describe()));
+        }
+        return lines;
+    }
+
+    public void stop() {
+        server.stop(0);
+        timer.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    private void handle(Route route, HttpExchange exchange) {
+        Request request;
+        try (InputStream input = exchange.getRequestBody()) {
+            request = new Request(exchange.getRequestURI().getPath(),
+                exchange.getRequestHeaders().getFirst("Content-Type"), exchange.getRequestURI().getRawQuery(),
+                input.readAllBytes());
+        } catch (IOException e) {
+            exchange.close();
+            return;
+        }
+        route.requests().incrementAndGet();
+        int status = route.faults().nextStatus();
+        timer.schedule(() -> executor.execute(() -> {
+            CompletableFuture<Reply> reply;
+            if (status == 500) {
+                route.errors().incrementAndGet();
+                reply = CompletableFuture.completedFuture(route.failure().apply(status));
+            } else if (status == 429) {
+                route.throttled().incrementAndGet();
+                reply = CompletableFuture.completedFuture(route.failure().apply(status));
+            } else {
+                try {
+                    reply = route.handler().handle(request);
+                } catch (RuntimeException e) {
+                    System.err.println("[StandInServer] " + route.name() + " handler failed: " + e.getMessage());
+                    reply = CompletableFuture.failedFuture(e);
+                }
+            }
+            reply.whenComplete((answer, error) -> send(exchange, error == null ? answer : Reply.json(500, "{}")));
+        }), route.faults().nextDelayMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static void send(HttpExchange exchange, Reply reply) {
+        try (exchange) {
+            exchange.getResponseHeaders().set("Content-Type", reply.contentType());
+            if (reply.status() == 429) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+            }
+            exchange.sendResponseHeaders(reply.status(), reply.body().length == 0 ? -1 : reply.body().length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(reply.body());
+            }
+        } catch (IOException ignored) {
+            // The client gave up waiting, which the load test counts on its side.
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.chasi.clockbot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Stands in for the Telegram Bot API and its file server in load tests. Photos published here are
+ * handed out through {@code getUpdates} the way Telegram does it: an update is delivered again until
+ * a later offset confirms it. Every message the bot sends is passed to the sink.
+ */
+public class TelegramStandIn {
+    private static final int MAX_UPDATES_PER_POLL = 100;
+    private static final String TRUE_RESULT = "{\"ok\":true,\"result\":true}";
+
+    public record SentMessage(long chatId, String text, long sentAtNanos) {
+    }
+
+    private record Queued(long updateId, ObjectNode update) {
+    }
+
+    private record Poll(long offset, int limit, CompletableFuture<StandInServer.Reply> reply) {
+    }
+
+    private final StandInServer server;
+    private final Consumer<SentMessage> sink;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ArrayDeque<Queued> updates = new ArrayDeque<>();
+    private final List<Poll> polls = new ArrayList<>();
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+    private final AtomicLong nextMessageId = new AtomicLong(1);
+    private long nextUpdateId = 1;
+
+    private TelegramStandIn(StandInServer server, Consumer<SentMessage> sink) {
+        this.server = server;
+        this.sink = sink;
+    }
+
+    /**
+     * @param api   faults of Bot API methods such as getUpdates, getFile and sendMessage
+     * @param files faults of photo downloads
+     */
+    public static TelegramStandIn start(String token, FaultProfile api, FaultProfile files,
+                                        Consumer<SentMessage> sink) throws IOException {
+        StandInServer server = StandInServer.start("telegram-stand-in");
+        TelegramStandIn telegram = new TelegramStandIn(server, sink);
+        server.route("/bot" + token + "/", "telegram_api", api, telegram::handleMethod, telegram::apiFailure);
+        server.route("/file/bot" + token + "/", "telegram_file", files, telegram::handleFile,
+            status -> StandInServer.Reply.json(status, "{}"));
+        return telegram;
+    }
+
+    /** The value for {@code TELEGRAM_API_BASE_URL}. */
+    public String baseUrl() {
+        return server.baseUrl();
+    }
+
+    public StandInServer server() {
+        return server;
+    }
+
+    /**
+     * Queues a private-chat message with one photo.
+     *
+     * @return the update id
+     */
+    public long publishPhoto(long chatId, long userId, byte[] bytes, int width, int height) {
+        List<Poll> answered;
+        long updateId;
+        synchronized (this) {
+            updateId = nextUpdateId++;
+            String fileId = "photo-" + updateId;
+            files.put(fileId, bytes);
+
+            ObjectNode update = mapper.createObjectNode();
+            update.put("update_id", updateId);
+            ObjectNode message = update.putObject("message");
+            message.put("message_id", updateId);
+            message.put("date", System.currentTimeMillis() / 1000);
+            message.putObject("chat").put("id", chatId).put("type", "private");
+            message.putObject("from").put("id", userId).put("is_bot", false).put("first_name", "Load");
+            message.putArray("photo").addObject()
+                .put("file_id", fileId)
+                .put("file_unique_id", fileId)
+                .put("width", width)
+                .put("height", height)
+                .put("file_size", bytes.length);
+            updates.add(new Queued(updateId, update));
+
+            answered = new ArrayList<>(polls);
+            polls.clear();
+        }
+        for (Poll poll : answered) {
+            poll.reply().complete(updatesReply(poll.offset(), poll.limit()));
+        }
+        return updateId;
+    }
+
+    public void stop() {
+        server.stop();
+    }
+
+    private CompletableFuture<StandInServer.Reply> handleMethod(StandInServer.Request request) {
+        String method = request.path().substring(request.path().lastIndexOf('/') + 1);
+        Map<String, String> params = params(request);
+        switch (method) {
+            case "getUpdates":
+                return getUpdates(params);
+            case "getFile":
+                return CompletableFuture.completedFuture(getFile(params.get("file_id")));
+            case "sendMessage":
+                return CompletableFuture.completedFuture(sendMessage(params));
+            default:
+                return CompletableFuture.completedFuture(StandInServer.Reply.json(200, TRUE_RESULT));
+        }
+    }
+
+    /** Answers at once if updates are waiting, otherwise holds the request for up to {@code timeout} seconds. */
+    private CompletableFuture<StandInServer.Reply> getUpdates(Map<String, String> params) {
+        long offset = Long.parseLong(params.getOrDefault("offset", "0"));
+        int limit = Math.min(MAX_UPDATES_PER_POLL, Integer.parseInt(params.getOrDefault("limit", "100")));
+        int timeout = Integer.parseInt(params.getOrDefault("timeout", "0"));
+        synchronized (this) {
+            while (!updates.isEmpty() && updates.peekFirst().updateId() < offset) {
+                updates.pollFirst();
+            }
+            if (!updates.isEmpty() || timeout <= 0) {
+                return CompletableFuture.completedFuture(updatesReply(offset, limit));
+            }
+            Poll poll = new Poll(offset, limit, new CompletableFuture<>());
+            polls.add(poll);
+            server.timer().schedule(() -> {
+                synchronized (this) {
+                    polls.remove(poll);
+                }
+                poll.reply().complete(updatesReply(offset, limit));
+            }, timeout, TimeUnit.SECONDS);
+            return poll.reply();
+        }
+    }
+
+    private synchronized StandInServer.Reply updatesReply(long offset, int limit) {
+        ObjectNode root = mapper.createObjectNode().put("ok", true);
+        ArrayNode result = root.putArray("result");
+        Iterator<Queued> queued = updates.iterator();
+        while (queued.hasNext() && result.size() < limit) {
+            Queued next = queued.next();
+            if (next.updateId() >= offset) {
+                result.add(next.update());
+            }
+        }
+        return StandInServer.Reply.json(200, root.toString());
+    }
+
+    private StandInServer.Reply getFile(String fileId) {
+        byte[] bytes = fileId == null ? null : files.get(fileId);
+        if (bytes == null) {
+            return StandInServer.Reply.json(400,
+                "{\"ok\":false,\"error_code\":400,\"description\":\"Bad Request: invalid file_id\"}");
+        }
+        ObjectNode root = mapper.createObjectNode().put("ok", true);
+        root.putObject("result")
+            .put("file_id", fileId)
+            .put("file_unique_id", fileId)
+            .put("file_size", bytes.length)
+            .put("file_path", "photos/" + fileId + ".jpg");
+        return StandInServer.Reply.json(200, root.toString());
+    }
+
+    private StandInServer.Reply sendMessage(Map<String, String> params) {
+        long chatId = Long.parseLong(params.getOrDefault("chat_id", "0"));
+        String text = params.getOrDefault("text", "");
+        sink.accept(new SentMessage(chatId, text, System.nanoTime()));
+
+        ObjectNode root = mapper.createObjectNode().put("ok", true);
+        ObjectNode message = root.putObject("result");
+        message.put("message_id", nextMessageId.getAndIncrement());
+        message.put("date", System.currentTimeMillis() / 1000);
+        message.putObject("chat").put("id", chatId).put("type", "private");
+        message.put("text", text);
+        return StandInServer.Reply.json(200, root.toString());
+    }
+
+    private CompletableFuture<StandInServer.Reply> handleFile(StandInServer.Request request) {
+        String path = request.path();
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        byte[] bytes = files.get(name.endsWith(".jpg") ? name.substring(0, name.length() - 4) : name);
+        return CompletableFuture.completedFuture(bytes == null
+            ? new StandInServer.Reply(404, "text/plain", new byte[0])
+            : new StandInServer.Reply(200, "application/octet-stream", bytes));
+    }
+
+    private StandInServer.Reply apiFailure(int status) {
+        ObjectNode root = mapper.createObjectNode().put("ok", false).put("error_code", status);
+        if (status == 429) {
+            root.put("description", "Too Many Requests: retry after 1");
+            root.putObject("parameters").put("retry_after", 1);
+        } else {
+            root.put("description", "Internal Server Error");
+        }
+        return StandInServer.Reply.json(status, root.toString());
+    }
+
+    /** Form and query parameters, or the fields of a JSON body. */
+    private Map<String, String> params(StandInServer.Request request) {
+        Map<String, String> params = request.params();
+        String contentType = request.contentType();
+        if (contentType != null && contentType.startsWith("application/json") && request.body().length > 0) {
+            try {
+                for (Map.Entry<String, JsonNode> field : mapper.readTree(request.body()).properties()) {
+                    params.put(field.getKey(), field.getValue().asText());
+                }
+            } catch (IOException e) {
+                System.err.println("[TelegramStandIn] Unreadable JSON body: " + e.getMessage());
+            }
+        }
+        return params;
+    }
+}